@@ -0,0 +1,385 @@
+package com.github.alanger.webdav;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of fixed size blocks of remote file contents, used for random access
+ * reads of large files.
+ * <p>
+ * Blocks are keyed by resource path, entity tag and block index, and stored in
+ * slots of a memory-mapped local file. Only missing blocks are read from the
+ * file system, adjacent missing blocks are read with a single stream. Least
+ * recently used blocks are evicted first, blocks being read by a request are
+ * never evicted. The index is kept in memory, the file is deleted on
+ * {@link #close()}.
+ */
+public class BlockCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockCache.class);
+
+    /**
+     * Default size of cached blocks
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final int blockSize;
+    private final int slotCount;
+    private final int slotsPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    private final Map<Key, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong readCount = new AtomicLong();
+
+    /**
+     * @param file
+     *            file of slots, created or truncated
+     * @param blockSize
+     *            size of blocks in bytes
+     * @param capacity
+     *            maximum size of the file in bytes, at least one block
+     */
+    public BlockCache(File file, int blockSize, long capacity) throws IOException {
+        if (blockSize <= 0 || blockSize > MAX_SEGMENT_SIZE || capacity < blockSize) {
+            throw new IllegalArgumentException("Invalid block cache size: " + blockSize + "/" + capacity);
+        }
+        this.file = file;
+        this.blockSize = blockSize;
+        this.slotCount = (int) Math.min(capacity / blockSize, Integer.MAX_VALUE);
+        this.slotsPerSegment = MAX_SEGMENT_SIZE / blockSize;
+        this.segments = new MappedByteBuffer[(slotCount + slotsPerSegment - 1) / slotsPerSegment];
+        this.raf = new RandomAccessFile(file, "rw");
+        raf.setLength((long) slotCount * blockSize);
+        for (int i = 0; i < slotCount; i++) {
+            freeSlots.add(i);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getCapacity() {
+        return (long) slotCount * blockSize;
+    }
+
+    public synchronized int getCount() {
+        return slots.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of streams opened to read missing blocks.
+     */
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * Opens content stream at the given position.
+     */
+    public interface ContentLoader {
+        InputStream open(long position) throws IOException;
+    }
+
+    /**
+     * Copy <code>length</code> bytes of the content starting at
+     * <code>position</code> to the output stream, missing blocks are read by
+     * the loader and cached.
+     *
+     * @return number of copied bytes
+     */
+    public long spool(String path, String etag, long contentLength, long position, long length, OutputStream out,
+            ContentLoader loader, BufferPool pool) throws IOException {
+        long end = Math.min(position + length, contentLength);
+        if (position >= end) {
+            return 0;
+        }
+        long lastBlock = (end - 1) / blockSize;
+        long block = position / blockSize;
+        while (block <= lastBlock) {
+            Key key = new Key(path, etag, block);
+            Slot slot = pin(key);
+            if (slot != null) {
+                hitCount.incrementAndGet();
+                try {
+                    write(slot, key, position, end, out, pool);
+                } finally {
+                    unpin(slot);
+                }
+                block++;
+                continue;
+            }
+            // coalesce adjacent missing blocks into one read
+            long missEnd = block;
+            while (missEnd < lastBlock && !contains(new Key(path, etag, missEnd + 1))) {
+                missEnd++;
+            }
+            missCount.addAndGet(missEnd - block + 1);
+            readCount.incrementAndGet();
+            byte[] buffer = pool.acquire();
+            try (InputStream is = loader.open(block * blockSize)) {
+                for (; block <= missEnd; block++) {
+                    load(new Key(path, etag, block), contentLength, position, end, is, out, buffer);
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        }
+        return end - position;
+    }
+
+    /**
+     * Read one block through the buffer into a free slot and write the
+     * requested part of it to the output stream. The block is not cached if
+     * all slots are in use.
+     */
+    private void load(Key key, long contentLength, long position, long end, InputStream is, OutputStream out,
+            byte[] buffer) throws IOException {
+        long blockStart = key.block * blockSize;
+        int blockLength = (int) Math.min(blockSize, contentLength - blockStart);
+        int from = (int) Math.max(position - blockStart, 0);
+        int to = (int) Math.min(end - blockStart, blockLength);
+        Integer index = reserve();
+        boolean stored = false;
+        try {
+            ByteBuffer dst = index != null ? slice(index) : null;
+            for (int offset = 0; offset < blockLength;) {
+                int count = Math.min(buffer.length, blockLength - offset);
+                readFully(is, buffer, count);
+                if (dst != null) {
+                    dst.put(buffer, 0, count);
+                }
+                int start = Math.max(from, offset);
+                int stop = Math.min(to, offset + count);
+                if (start < stop) {
+                    out.write(buffer, start - offset, stop - start);
+                }
+                offset += count;
+            }
+            if (index != null) {
+                store(key, index, blockLength);
+                stored = true;
+            }
+        } finally {
+            if (index != null && !stored) {
+                release(index);
+            }
+        }
+    }
+
+    private void write(Slot slot, Key key, long position, long end, OutputStream out, BufferPool pool)
+            throws IOException {
+        long blockStart = key.block * blockSize;
+        int from = (int) Math.max(position - blockStart, 0);
+        int to = (int) Math.min(end - blockStart, slot.length);
+        ByteBuffer src = slice(slot.index);
+        src.position(from).limit(to);
+        byte[] chunk = pool.acquire();
+        try {
+            while (src.hasRemaining()) {
+                int count = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+        } finally {
+            pool.release(chunk);
+        }
+    }
+
+    private synchronized void store(Key key, int index, int length) {
+        if (slots.containsKey(key)) {
+            freeSlots.add(index); // stored by another request
+        } else {
+            slots.put(key, new Slot(index, length));
+        }
+    }
+
+    private synchronized void release(int index) {
+        freeSlots.add(index);
+    }
+
+    private synchronized Slot pin(Key key) {
+        Slot slot = slots.get(key);
+        if (slot != null) {
+            slot.pins++;
+        }
+        return slot;
+    }
+
+    private synchronized void unpin(Slot slot) {
+        if (--slot.pins == 0 && slot.removed) {
+            freeSlots.add(slot.index);
+        }
+    }
+
+    private synchronized boolean contains(Key key) {
+        return slots.containsKey(key);
+    }
+
+    private synchronized Integer reserve() {
+        Integer index = freeSlots.poll();
+        if (index != null) {
+            return index;
+        }
+        Iterator<Slot> it = slots.values().iterator();
+        while (it.hasNext()) {
+            Slot slot = it.next();
+            if (slot.pins == 0) {
+                it.remove();
+                return slot.index;
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer slice(int index) throws IOException {
+        int segment = index / slotsPerSegment;
+        MappedByteBuffer mapped;
+        synchronized (segments) {
+            mapped = segments[segment];
+            if (mapped == null) {
+                long start = (long) segment * slotsPerSegment * blockSize;
+                long size = Math.min((long) slotsPerSegment * blockSize, (long) slotCount * blockSize - start);
+                mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, start, size);
+                segments[segment] = mapped;
+            }
+        }
+        ByteBuffer buffer = mapped.duplicate();
+        int offset = (index % slotsPerSegment) * blockSize;
+        buffer.position(offset).limit(offset + blockSize);
+        return buffer.slice();
+    }
+
+    private static void readFully(InputStream is, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = is.read(buffer, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of content, " + (length - offset) + " bytes not read");
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Remove blocks of the path and all paths below it, blocks being read are
+     * removed from the index but their slots are not reused until released.
+     */
+    public synchronized void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        List<Key> keys = new ArrayList<>();
+        for (Key key : slots.keySet()) {
+            if (key.path.equals(path) || key.path.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        for (Key key : keys) {
+            Slot slot = slots.remove(key);
+            slot.removed = true;
+            if (slot.pins == 0) {
+                freeSlots.add(slot.index);
+            }
+        }
+    }
+
+    /**
+     * Close and delete the file of slots.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        slots.clear();
+        freeSlots.clear();
+        raf.close();
+        if (!file.delete()) {
+            log.debug("Failed to delete block cache file '{}'", file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockCache [file=" + file + ", blockSize=" + blockSize + ", capacity=" + getCapacity() + ", count="
+                + getCount() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", reads="
+                + getReadCount() + "]";
+    }
+
+    private static final class Key {
+        final String path;
+        final String etag;
+        final long block;
+
+        Key(String path, String etag, long block) {
+            this.path = path;
+            this.etag = etag;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return block == other.block && path.equals(other.path) && etag.equals(other.etag);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, etag, block);
+        }
+    }
+
+    private static final class Slot {
+        final int index;
+        final int length;
+        int pins = 0;
+        boolean removed = false;
+
+        Slot(int index, int length) {
+            this.index = index;
+            this.length = length;
+        }
+    }
+}
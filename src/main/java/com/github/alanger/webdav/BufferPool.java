@@ -0,0 +1,265 @@
+package com.github.alanger.webdav;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Striped pool of byte buffers shared by spooling and importing operations.
+ * <p>
+ * Every servlet owns a pool for the scheme of its root, other code shares one
+ * pool per file system scheme, so remote file systems with high latency use
+ * larger buffers than the local one. The buffer size adapts to the
+ * observed reads: it grows while most reads fill the whole buffer and shrinks
+ * back while they do not, within the configured bounds. Idle buffers are
+ * bounded by their total size, buffers of another size are dropped when the
+ * size changes.
+ */
+public class BufferPool implements BufferPoolMXBean {
+
+    /**
+     * Initial buffer size for local file systems
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Initial buffer size for remote file systems
+     */
+    public static final int REMOTE_BUFFER_SIZE = 128 * 1024;
+
+    /**
+     * Upper bound of adaptive buffer size
+     */
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int STRIPES = 8;
+    private static final long MAX_IDLE_BYTES = 16L * 1024 * 1024;
+    private static final int SAMPLE_READS = 256;
+
+    private static final Map<String, BufferPool> pools = new ConcurrentHashMap<>();
+    private static final BufferPool defaultPool = new BufferPool(DEFAULT_BUFFER_SIZE, MAX_BUFFER_SIZE);
+
+    private final AtomicReferenceArray<Queue<byte[]>> stripes;
+    private volatile int bufferSize;
+    private volatile int minBufferSize;
+    private volatile int maxBufferSize;
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicInteger inUseCount = new AtomicInteger();
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong allocateCount = new AtomicLong();
+    private final AtomicLong sampledReads = new AtomicLong();
+    private final AtomicLong sampledFullReads = new AtomicLong();
+
+    public BufferPool(int minBufferSize, int maxBufferSize) {
+        if (minBufferSize <= 0 || maxBufferSize < minBufferSize) {
+            throw new IllegalArgumentException("Invalid buffer size: " + minBufferSize + "-" + maxBufferSize);
+        }
+        this.minBufferSize = minBufferSize;
+        this.maxBufferSize = maxBufferSize;
+        this.bufferSize = minBufferSize;
+        this.stripes = new AtomicReferenceArray<>(STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.set(i, new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Return pool for file systems with unknown scheme.
+     */
+    public static BufferPool getDefault() {
+        return defaultPool;
+    }
+
+    /**
+     * Return pool shared by all file systems of the scheme.
+     */
+    public static BufferPool forScheme(String scheme) {
+        if (scheme == null) {
+            return defaultPool;
+        }
+        return pools.computeIfAbsent(scheme.toLowerCase(), BufferPool::create);
+    }
+
+    /**
+     * Create a new pool with the initial buffer size of the scheme.
+     */
+    public static BufferPool create(String scheme) {
+        boolean local = scheme == null || isLocalScheme(scheme.toLowerCase());
+        return new BufferPool(local ? DEFAULT_BUFFER_SIZE : REMOTE_BUFFER_SIZE, MAX_BUFFER_SIZE);
+    }
+
+    private static boolean isLocalScheme(String scheme) {
+        return "file".equals(scheme) || "ram".equals(scheme) || "res".equals(scheme) || "tmp".equals(scheme);
+    }
+
+    /**
+     * Take a buffer from pool or allocate a new one, the buffer must be returned
+     * by {@link #release(byte[])}.
+     */
+    public byte[] acquire() {
+        acquireCount.incrementAndGet();
+        inUseCount.incrementAndGet();
+        int size = bufferSize;
+        Queue<byte[]> stripe = stripe();
+        byte[] buffer;
+        while ((buffer = stripe.poll()) != null) {
+            idleCount.decrementAndGet();
+            idleBytes.addAndGet(-buffer.length);
+            if (buffer.length == size) {
+                return buffer;
+            }
+            // buffer size has been changed, drop the old one
+        }
+        allocateCount.incrementAndGet();
+        return new byte[size];
+    }
+
+    /**
+     * Return the buffer to pool.
+     */
+    public void release(byte[] buffer) {
+        inUseCount.decrementAndGet();
+        if (buffer.length != bufferSize) {
+            return;
+        }
+        if (idleBytes.addAndGet(buffer.length) <= MAX_IDLE_BYTES) {
+            idleCount.incrementAndGet();
+            stripe().offer(buffer);
+        } else {
+            idleBytes.addAndGet(-buffer.length);
+        }
+    }
+
+    /**
+     * Drop idle buffers which do not have the current buffer size.
+     */
+    private void trim() {
+        int size = bufferSize;
+        for (int i = 0; i < STRIPES; i++) {
+            Queue<byte[]> stripe = stripes.get(i);
+            for (byte[] buffer : stripe) {
+                if (buffer.length != size && stripe.remove(buffer)) {
+                    idleCount.decrementAndGet();
+                    idleBytes.addAndGet(-buffer.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the observed reads into a buffer of this pool, where
+     * <code>fullReads</code> is the number of reads that filled the whole
+     * buffer.
+     */
+    public void recordReads(int reads, int fullReads) {
+        if (reads <= 0) {
+            return;
+        }
+        sampledFullReads.addAndGet(fullReads);
+        if (sampledReads.addAndGet(reads) >= SAMPLE_READS) {
+            adapt();
+        }
+    }
+
+    private synchronized void adapt() {
+        long reads = sampledReads.getAndSet(0);
+        long fullReads = sampledFullReads.getAndSet(0);
+        if (reads < SAMPLE_READS) {
+            return;
+        }
+        int size = bufferSize;
+        if (fullReads * 4 >= reads * 3) {
+            bufferSize = (int) Math.min((long) size * 2, maxBufferSize);
+        } else if (fullReads * 8 < reads) {
+            bufferSize = Math.max(size / 2, minBufferSize);
+        }
+        if (bufferSize != size) {
+            trim();
+        }
+    }
+
+    private Queue<byte[]> stripe() {
+        return stripes.get((int) Thread.currentThread().getId() & (STRIPES - 1));
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+
+    /**
+     * Set initial and lower bound of the buffer size.
+     */
+    public synchronized void setMinBufferSize(int minBufferSize) {
+        if (minBufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size: " + minBufferSize);
+        }
+        this.minBufferSize = minBufferSize;
+        if (maxBufferSize < minBufferSize) {
+            maxBufferSize = minBufferSize;
+        }
+        bufferSize = minBufferSize;
+        trim();
+    }
+
+    @Override
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * Set upper bound of the buffer size.
+     */
+    public synchronized void setMaxBufferSize(int maxBufferSize) {
+        if (maxBufferSize < minBufferSize) {
+            throw new IllegalArgumentException("Invalid buffer size: " + minBufferSize + "-" + maxBufferSize);
+        }
+        this.maxBufferSize = maxBufferSize;
+        if (bufferSize > maxBufferSize) {
+            bufferSize = maxBufferSize;
+            trim();
+        }
+    }
+
+    @Override
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    @Override
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    @Override
+    public int getInUseCount() {
+        return inUseCount.get();
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    @Override
+    public long getAllocateCount() {
+        return allocateCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool [bufferSize=" + bufferSize + ", idle=" + getIdleCount() + ", inUse=" + getInUseCount()
+                + ", acquired=" + getAcquireCount() + ", allocated=" + getAllocateCount() + "]";
+    }
+}
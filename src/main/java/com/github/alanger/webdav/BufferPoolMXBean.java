@@ -0,0 +1,43 @@
+package com.github.alanger.webdav;
+
+/**
+ * Management interface of {@link BufferPool}, registered in the platform
+ * MBean server by {@link VfsWebDavServlet}.
+ */
+public interface BufferPoolMXBean {
+
+    /**
+     * Current size of acquired buffers in bytes.
+     */
+    int getBufferSize();
+
+    int getMinBufferSize();
+
+    int getMaxBufferSize();
+
+    /**
+     * Number of idle buffers kept in pool.
+     */
+    int getIdleCount();
+
+    /**
+     * Total size of idle buffers kept in pool in bytes.
+     */
+    long getIdleBytes();
+
+    /**
+     * Number of buffers currently acquired and not released.
+     */
+    int getInUseCount();
+
+    /**
+     * Total number of acquired buffers.
+     */
+    long getAcquireCount();
+
+    /**
+     * Number of acquired buffers which had to be allocated.
+     */
+    long getAllocateCount();
+
+}
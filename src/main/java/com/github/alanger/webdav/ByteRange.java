@@ -0,0 +1,224 @@
+package com.github.alanger.webdav;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Single satisfiable byte range of the HTTP <code>Range</code> header, see
+ * RFC 7233. Positions are zero-based and the end position is inclusive.
+ */
+public final class ByteRange {
+
+    /**
+     * Range unit supported by this server.
+     */
+    public static final String BYTES_UNIT = "bytes";
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid byte range: " + start + "-" + end);
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Return value of the <code>Content-Range</code> header for this range.
+     *
+     * @param completeLength
+     *            length of the whole representation
+     * @return content range as string, ex.: <code>bytes 0-499/1234</code>
+     */
+    public String toContentRange(long completeLength) {
+        return BYTES_UNIT + " " + start + "-" + end + "/" + completeLength;
+    }
+
+    /**
+     * Return value of the <code>Content-Range</code> header for the 416
+     * (Range Not Satisfiable) response.
+     *
+     * @param completeLength
+     *            length of the whole representation
+     * @return content range as string, ex.: <code>bytes *&#47;1234</code>
+     */
+    public static String toUnsatisfiedContentRange(long completeLength) {
+        return BYTES_UNIT + " */" + completeLength;
+    }
+
+    /**
+     * Parse the value of the <code>Range</code> header.
+     *
+     * @param header
+     *            value of the <code>Range</code> header
+     * @param completeLength
+     *            length of the whole representation
+     * @return <code>null</code> if the header must be ignored (unknown unit,
+     *         invalid syntax or undefined length), empty list if none of the
+     *         ranges is satisfiable, otherwise the satisfiable ranges in order
+     *         of the header.
+     */
+    public static List<ByteRange> parse(String header, long completeLength) {
+        if (header == null || completeLength < 0) {
+            return null;
+        }
+        int eq = header.indexOf('=');
+        if (eq < 0 || !BYTES_UNIT.equalsIgnoreCase(header.substring(0, eq).trim())) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        boolean hasSpec = false;
+        for (String spec : header.substring(eq + 1).split(",")) {
+            spec = spec.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            hasSpec = true;
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // suffix-byte-range-spec, ex.: "-500"
+                    long suffix = parsePosition(last);
+                    if (suffix > 0 && completeLength > 0) {
+                        ranges.add(new ByteRange(Math.max(0, completeLength - suffix), completeLength - 1));
+                    }
+                } else {
+                    long start = parsePosition(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : parsePosition(last);
+                    if (end < start) {
+                        return null;
+                    }
+                    if (start < completeLength) {
+                        ranges.add(new ByteRange(start, Math.min(end, completeLength - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return hasSpec ? ranges : null;
+    }
+
+    /**
+     * Sort ranges by start position and coalesce overlapping or adjacent
+     * ranges, so the content can be read in a single forward pass.
+     *
+     * @return new list of disjoint ranges in file order
+     */
+    public static List<ByteRange> merge(List<ByteRange> ranges) {
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(ByteRange::getStart));
+
+        List<ByteRange> merged = new ArrayList<>(sorted.size());
+        ByteRange current = null;
+        for (ByteRange range : sorted) {
+            if (current == null) {
+                current = range;
+            } else if (range.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, range.end));
+            } else {
+                merged.add(current);
+                current = range;
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * Parse the range of the <code>Content-Range</code> header of a request,
+     * ex.: <code>bytes 0-499/1234</code> or <code>bytes 0-499/*</code>.
+     *
+     * @return <code>null</code> if the header is not a valid byte range of
+     *         known or unknown complete length
+     */
+    public static ByteRange parseContentRange(String header) {
+        if (header == null) {
+            return null;
+        }
+        header = header.trim();
+        int space = header.indexOf(' ');
+        int dash = header.indexOf('-', space + 1);
+        int slash = header.indexOf('/', dash + 1);
+        if (space < 0 || dash < 0 || slash < 0 || !BYTES_UNIT.equalsIgnoreCase(header.substring(0, space))) {
+            return null;
+        }
+        try {
+            long start = parsePosition(header.substring(space + 1, dash).trim());
+            long end = parsePosition(header.substring(dash + 1, slash).trim());
+            long completeLength = parseCompleteLength(header);
+            if (end < start || completeLength != -1 && end >= completeLength) {
+                return null;
+            }
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse the complete length of the <code>Content-Range</code> header.
+     *
+     * @return complete length or <code>-1</code> if it is unknown
+     *         (<code>*</code>)
+     * @throws NumberFormatException
+     *             if the header has no valid complete length
+     */
+    public static long parseCompleteLength(String header) {
+        int slash = header.lastIndexOf('/');
+        String value = slash >= 0 ? header.substring(slash + 1).trim() : "";
+        return "*".equals(value) ? -1 : parsePosition(value);
+    }
+
+    private static long parsePosition(String value) {
+        if (value.isEmpty() || value.charAt(0) == '+' || value.charAt(0) == '-') {
+            throw new NumberFormatException("Invalid byte position: " + value);
+        }
+        return Long.parseLong(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ByteRange)) {
+            return false;
+        }
+        ByteRange other = (ByteRange) obj;
+        return start == other.start && end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(start) * 31 + Long.hashCode(end);
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
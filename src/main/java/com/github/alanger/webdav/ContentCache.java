@@ -0,0 +1,423 @@
+package com.github.alanger.webdav;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of file contents on local disk, used for remote file
+ * systems.
+ * <p>
+ * Entries are keyed by resource path and validated by the entity tag of the
+ * resource, so a cached content is served only while size and modification
+ * time of the file are unchanged. Total size of the entries is bounded, least
+ * recently used entries are evicted first. The index survives restarts, every
+ * entry is stored as data file and <code>.meta</code> file with the path and
+ * entity tag.
+ * <p>
+ * Files of an entry have unique names and are written before and deleted
+ * after the index is updated, so disk I/O does not hold the lock of the
+ * index. Content is opened under the lock, an open channel stays readable
+ * after its entry has been evicted.
+ */
+public class ContentCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentCache.class);
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String META_PATH = "path";
+    private static final String META_ETAG = "etag";
+
+    private final File directory;
+    private final long capacity;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param directory
+     *            directory of cache files, created if not exists
+     * @param capacity
+     *            maximum total size of cached contents in bytes
+     */
+    public ContentCache(File directory, long capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid cache capacity: " + capacity);
+        }
+        this.directory = directory;
+        this.capacity = capacity;
+        Files.createDirectories(directory.toPath());
+        load();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Return true if content of the given length may be cached, entries larger
+     * than half of the capacity are not cached.
+     */
+    public boolean isCacheable(long length) {
+        return length >= 0 && length <= capacity / 2;
+    }
+
+    /**
+     * Open the cached content for reading, the caller must close the channel.
+     *
+     * @return <code>null</code> if the entry does not exist or has another
+     *         entity tag
+     */
+    public FileChannel open(String path, String etag) {
+        if (etag == null) {
+            return null;
+        }
+        String key = hash(path);
+        List<Entry> removed = new ArrayList<>(1);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.etag.equals(etag)) {
+                try {
+                    FileChannel channel = FileChannel.open(entry.data.toPath(), StandardOpenOption.READ);
+                    hitCount.incrementAndGet();
+                    return channel;
+                } catch (IOException e) {
+                    log.debug("Failed to open cache file '{}'", entry.data, e);
+                }
+            }
+            if (entry != null) {
+                remove(key, removed);
+            }
+        }
+        delete(removed);
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Wrap the output stream to write the content into the cache at the same
+     * time. The entry is added by {@link CachingOutputStream#commit(long)} only
+     * if the whole content has been written.
+     */
+    public CachingOutputStream begin(String path, String etag, OutputStream out) throws IOException {
+        File temp = File.createTempFile(hash(path) + "-", TEMP_SUFFIX, directory);
+        return new CachingOutputStream(out, path, etag, temp);
+    }
+
+    /**
+     * Remove the entry of the path and all entries below it.
+     */
+    public void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            List<String> keys = new ArrayList<>();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                String entryPath = e.getValue().path;
+                if (entryPath.equals(path) || entryPath.startsWith(prefix)) {
+                    keys.add(e.getKey());
+                }
+            }
+            for (String key : keys) {
+                remove(key, removed);
+            }
+        }
+        delete(removed);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            for (String key : new ArrayList<>(entries.keySet())) {
+                remove(key, removed);
+            }
+        }
+        delete(removed);
+    }
+
+    private void add(String path, String etag, File temp, long length) throws IOException {
+        // unique base name of the temporary file, ex.: "<key>-123.tmp"
+        String name = temp.getName();
+        String base = name.substring(0, name.length() - TEMP_SUFFIX.length());
+        File data = new File(directory, base + DATA_SUFFIX);
+        File meta = new File(directory, base + META_SUFFIX);
+        Properties props = new Properties();
+        props.setProperty(META_PATH, path);
+        props.setProperty(META_ETAG, etag);
+        try (OutputStream os = new FileOutputStream(meta)) {
+            props.store(os, null);
+        }
+        Files.move(temp.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        String key = hash(path);
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            remove(key, removed);
+            entries.put(key, new Entry(path, etag, data, meta, length));
+            size += length;
+            evict(removed);
+        }
+        delete(removed);
+    }
+
+    private void remove(String key, List<Entry> removed) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.length;
+            removed.add(entry);
+        }
+    }
+
+    private void evict(List<Entry> removed) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size > capacity && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            it.remove();
+            size -= entry.length;
+            removed.add(entry);
+        }
+    }
+
+    private void load() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<Entry> removed = new ArrayList<>();
+        // oldest entries first, so they are evicted first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                delete(file);
+            } else if (name.endsWith(META_SUFFIX)) {
+                String base = name.substring(0, name.length() - META_SUFFIX.length());
+                File data = new File(directory, base + DATA_SUFFIX);
+                Properties props = new Properties();
+                try (InputStream is = new FileInputStream(file)) {
+                    props.load(is);
+                } catch (IOException e) {
+                    log.debug("Failed to load cache entry '{}'", file, e);
+                }
+                String path = props.getProperty(META_PATH);
+                String etag = props.getProperty(META_ETAG);
+                if (path != null && etag != null && data.isFile()) {
+                    // a newer entry of the same path replaces the older one
+                    String key = hash(path);
+                    remove(key, removed);
+                    entries.put(key, new Entry(path, etag, data, file, data.length()));
+                    size += data.length();
+                } else {
+                    delete(file);
+                    delete(data);
+                }
+            }
+        }
+        // remove data files without meta
+        Set<File> dataFiles = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            dataFiles.add(entry.data);
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(DATA_SUFFIX) && !dataFiles.contains(file)) {
+                delete(file);
+            }
+        }
+        evict(removed);
+        delete(removed);
+    }
+
+    private static void delete(List<Entry> removed) {
+        for (Entry entry : removed) {
+            delete(entry.meta);
+            delete(entry.data);
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            log.debug("Failed to delete cache file '{}'", file);
+        }
+    }
+
+    static String hash(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ContentCache [directory=" + directory + ", capacity=" + capacity + ", size=" + getSize() + ", count="
+                + getCount() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+
+    private static final class Entry {
+        final String path;
+        final String etag;
+        final File data;
+        final File meta;
+        final long length;
+
+        Entry(String path, String etag, File data, File meta, long length) {
+            this.path = path;
+            this.etag = etag;
+            this.data = data;
+            this.meta = meta;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Output stream which writes to the wrapped stream and to a temporary cache
+     * file. Errors of the cache file are logged and do not affect the wrapped
+     * stream.
+     */
+    public final class CachingOutputStream extends FilterOutputStream {
+
+        private final String path;
+        private final String etag;
+        private final File temp;
+        private OutputStream cacheOut;
+        private long written = 0;
+
+        private CachingOutputStream(OutputStream out, String path, String etag, File temp) throws IOException {
+            super(out);
+            this.path = path;
+            this.etag = etag;
+            this.temp = temp;
+            this.cacheOut = new FileOutputStream(temp);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (cacheOut != null) {
+                try {
+                    cacheOut.write(b);
+                    written++;
+                } catch (IOException e) {
+                    abort();
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (cacheOut != null) {
+                try {
+                    cacheOut.write(b, off, len);
+                    written += len;
+                } catch (IOException e) {
+                    log.debug("Failed to write cache file '{}'", temp, e);
+                    abort();
+                }
+            }
+        }
+
+        /**
+         * Add the cache entry if the expected number of bytes has been written,
+         * otherwise discard it.
+         */
+        public void commit(long expectedLength) {
+            if (cacheOut == null) {
+                return;
+            }
+            try {
+                cacheOut.close();
+                cacheOut = null;
+                if (written == expectedLength) {
+                    add(path, etag, temp, written);
+                    return;
+                }
+            } catch (IOException e) {
+                log.debug("Failed to add cache entry '{}'", path, e);
+            }
+            abort();
+        }
+
+        /**
+         * Discard the cache entry.
+         */
+        public void abort() {
+            if (cacheOut != null) {
+                try {
+                    cacheOut.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                cacheOut = null;
+            }
+            delete(temp);
+        }
+
+        /**
+         * Close the cache file only, the wrapped stream is closed by its owner.
+         */
+        @Override
+        public void close() {
+            abort();
+        }
+    }
+}
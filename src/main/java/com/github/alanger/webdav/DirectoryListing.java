@@ -0,0 +1,276 @@
+package com.github.alanger.webdav;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.apache.jackrabbit.webdav.property.DavProperty;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+
+/**
+ * Sorted page of members of a collection. Members are read one by one and only
+ * the first <code>offset + limit</code> entries in sort order are kept in a
+ * bounded heap, so memory does not depend on the size of the collection.
+ * <p>
+ * A page may continue after the last entry of the previous page given by an
+ * opaque cursor, then entries up to the cursor are skipped without being
+ * kept.
+ */
+public class DirectoryListing {
+
+    public static final String SORT_NAME = "name";
+    public static final String SORT_SIZE = "size";
+    public static final String SORT_TYPE = "type";
+    public static final String SORT_MODIFIED = "modified";
+
+    /**
+     * Properties of members read for listings
+     */
+    protected static final DavPropertyNameSet LISTING_NAMES = new DavPropertyNameSet();
+
+    static {
+        LISTING_NAMES.add(DavPropertyName.GETCONTENTLENGTH);
+        LISTING_NAMES.add(DavPropertyName.GETCONTENTTYPE);
+    }
+
+    private final int offset;
+    private final int limit;
+    private final String sort;
+    private final Comparator<Entry> comparator;
+    private final PriorityQueue<Entry> heap;
+    private Entry after;
+    private long total = 0;
+    private long digest = 0;
+
+    /**
+     * @param offset
+     *            number of skipped entries
+     * @param limit
+     *            maximum number of entries of the page
+     * @param sort
+     *            sort key, one of <code>name</code>, <code>size</code>,
+     *            <code>type</code> and <code>modified</code>, prefixed by
+     *            <code>-</code> for descending order, <code>null</code> or
+     *            unknown key is <code>name</code>
+     */
+    public DirectoryListing(int offset, int limit, String sort) {
+        if (offset < 0 || limit <= 0 || (long) offset + limit > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid page: " + offset + "/" + limit);
+        }
+        boolean descending = sort != null && sort.startsWith("-");
+        String key = descending ? sort.substring(1) : sort;
+        Comparator<Entry> byName = Comparator.comparing(Entry::getName);
+        Comparator<Entry> c;
+        if (SORT_SIZE.equals(key)) {
+            c = Comparator.comparingLong(Entry::getContentLength).thenComparing(byName);
+        } else if (SORT_TYPE.equals(key)) {
+            c = Comparator.comparing(Entry::getContentType, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(byName);
+        } else if (SORT_MODIFIED.equals(key)) {
+            c = Comparator.comparingLong(Entry::getModificationTime).thenComparing(byName);
+        } else {
+            key = SORT_NAME;
+            c = byName;
+        }
+        this.offset = offset;
+        this.limit = limit;
+        this.sort = descending ? "-" + key : key;
+        this.comparator = descending ? c.reversed() : c;
+        this.heap = new PriorityQueue<>(Math.min(offset + limit, 1024) + 1, comparator.reversed());
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Normalized sort key.
+     */
+    public String getSort() {
+        return sort;
+    }
+
+    /**
+     * Number of all added entries after the cursor.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Digest of names, sizes and modification times of all added entries,
+     * independent of the order of adding.
+     */
+    public long getDigest() {
+        return digest;
+    }
+
+    /**
+     * Return true if there are more entries after the page.
+     */
+    public boolean hasMore() {
+        return total > (long) offset + limit;
+    }
+
+    /**
+     * Continue after the entry of the cursor returned by
+     * {@link #getCursor(Entry)}.
+     *
+     * @throws IllegalArgumentException
+     *             if the cursor is not valid or it was created for another
+     *             sort order
+     */
+    public void setCursor(String cursor) {
+        String[] fields;
+        try {
+            fields = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", 5);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+        if (fields.length != 5 || !sort.equals(fields[0])) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        try {
+            after = new Entry(fields[4], false, Long.parseLong(fields[1]), fields[3].isEmpty() ? null : fields[3],
+                    Long.parseLong(fields[2]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    /**
+     * Return opaque cursor of the entry, which continues the listing after
+     * it in the same sort order.
+     */
+    public String getCursor(Entry entry) {
+        String type = entry.getContentType() != null ? entry.getContentType() : "";
+        String value = sort + "\n" + entry.getContentLength() + "\n" + entry.getModificationTime() + "\n" + type
+                + "\n" + entry.getName();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Add the entry, it is kept only if it is after the cursor and among the
+     * first <code>offset + limit</code> entries.
+     */
+    public void add(Entry entry) {
+        digest += entry.hash();
+        if (after != null && comparator.compare(entry, after) <= 0) {
+            return;
+        }
+        total++;
+        if (heap.size() < offset + limit) {
+            heap.add(entry);
+        } else if (comparator.compare(entry, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    /**
+     * Add all members of the collection, members of a {@link VfsDavResource}
+     * are created in batches and only properties of listings are read.
+     */
+    public DirectoryListing addMembers(DavResource resource) {
+        if (resource instanceof VfsDavResource) {
+            VfsDavResource vfsResource = (VfsDavResource) resource;
+            vfsResource.setRequestedProperties(LISTING_NAMES);
+            MemberCursor members = new MemberCursor(vfsResource);
+            for (VfsDavResource member = members.next(); member != null; member = members.next()) {
+                add(Entry.of(member));
+            }
+        } else {
+            for (DavResourceIterator it = resource.getMembers(); it.hasNext();) {
+                add(Entry.of(it.nextResource()));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Return entries of the page in sort order.
+     */
+    public List<Entry> getPage() {
+        List<Entry> entries = new ArrayList<>(heap);
+        Collections.sort(entries, comparator);
+        return offset < entries.size() ? entries.subList(offset, entries.size()) : Collections.emptyList();
+    }
+
+    /**
+     * Member of a collection.
+     */
+    public static final class Entry {
+        private final String name;
+        private final boolean collection;
+        private final long contentLength;
+        private final String contentType;
+        private final long modificationTime;
+
+        public Entry(String name, boolean collection, long contentLength, String contentType,
+                long modificationTime) {
+            this.name = name;
+            this.collection = collection;
+            this.contentLength = contentLength;
+            this.contentType = contentType;
+            this.modificationTime = modificationTime;
+        }
+
+        /**
+         * Create entry from properties of the resource.
+         */
+        public static Entry of(DavResource resource) {
+            boolean collection = resource.isCollection();
+            long length = 0;
+            String type = null;
+            if (!collection) {
+                DavProperty<?> prop = resource.getProperty(DavPropertyName.GETCONTENTLENGTH);
+                String value = prop != null && prop.getValue() != null ? prop.getValue().toString() : null;
+                length = value != null ? Long.parseLong(value) : 0L;
+                prop = resource.getProperty(DavPropertyName.GETCONTENTTYPE);
+                type = prop != null && prop.getValue() != null ? prop.getValue().toString() : null;
+            }
+            return new Entry(resource.getDisplayName(), collection, length, type, resource.getModificationTime());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isCollection() {
+            return collection;
+        }
+
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * Content type or <code>null</code> for collections and unknown types.
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+
+        long hash() {
+            long h = name.hashCode() * 0x9E3779B97F4A7C15L;
+            h = (h ^ (h >>> 29) ^ contentLength) * 0xBF58476D1CE4E5B9L;
+            h = (h ^ (h >>> 32) ^ modificationTime) * 0x94D049BB133111EBL;
+            return h ^ (h >>> 31) ^ (collection ? 1 : 0);
+        }
+    }
+}
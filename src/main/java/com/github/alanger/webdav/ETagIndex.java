@@ -0,0 +1,300 @@
+package com.github.alanger.webdav;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent index of content digests used as strong entity tags.
+ * <p>
+ * Digests are keyed by resource path and valid only while size and
+ * modification time of the file are unchanged. The index file is a log with
+ * one line per change: <code>&lt;digest&gt; &lt;size&gt; &lt;mtime&gt;
+ * &lt;path&gt;</code>, removed paths are logged with digest <code>-</code>.
+ * The log is compacted when it is loaded and when most of its lines are
+ * replaced or removed records.
+ */
+public class ETagIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ETagIndex.class);
+
+    /**
+     * Digest algorithm of contents
+     */
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final String REMOVED = "-";
+
+    private final File file;
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+    private final Set<String> computing = ConcurrentHashMap.newKeySet();
+    private Writer writer;
+    private int lines = 0;
+
+    /**
+     * @param file
+     *            index file, created if not exists
+     */
+    public ETagIndex(File file) throws IOException {
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        lines = load();
+        if (isCompactable()) {
+            compact();
+        }
+        this.writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getCount() {
+        return records.size();
+    }
+
+    /**
+     * Return digest of the content or <code>null</code> if it is unknown or the
+     * file has been changed.
+     */
+    public String get(String path, long size, long modificationTime) {
+        Record record = records.get(path);
+        return record != null && record.size == size && record.modificationTime == modificationTime
+                ? record.digest
+                : null;
+    }
+
+    public void put(String path, long size, long modificationTime, String digest) {
+        records.put(path, new Record(size, modificationTime, digest));
+        append(digest + " " + size + " " + modificationTime + " " + path);
+    }
+
+    /**
+     * Remove digests of the path and all paths below it.
+     */
+    public void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        List<String> paths = new ArrayList<>();
+        for (String recordPath : records.keySet()) {
+            if (recordPath.equals(path) || recordPath.startsWith(prefix)) {
+                paths.add(recordPath);
+            }
+        }
+        for (String recordPath : paths) {
+            if (records.remove(recordPath) != null) {
+                append(REMOVED + " 0 0 " + recordPath);
+            }
+        }
+    }
+
+    /**
+     * Mark digest of the path as being computed.
+     *
+     * @return <code>false</code> if it is already being computed
+     */
+    public boolean startComputing(String path) {
+        return computing.add(path);
+    }
+
+    public void finishComputing(String path) {
+        computing.remove(path);
+    }
+
+    /**
+     * Compute digest of the stream, the stream is not closed.
+     *
+     * @return digest or <code>null</code> if the stream length differs from
+     *         the expected size, since the file has been changed
+     */
+    public static String digest(InputStream in, long size, BufferPool pool) throws IOException {
+        MessageDigest md = newDigest();
+        long length = 0;
+        byte[] buffer = pool.acquire();
+        try {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                md.update(buffer, 0, read);
+                length += read;
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return length == size ? encode(md.digest()) : null;
+    }
+
+    /**
+     * Wrap the output stream to compute digest of the written content, see
+     * {@link DigestingOutputStream#commit(String, long, long)}.
+     */
+    public DigestingOutputStream wrap(OutputStream out) {
+        return new DigestingOutputStream(out);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String encode(byte[] digest) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private synchronized void append(String line) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+            lines++;
+            if (isCompactable()) {
+                writer.close();
+                writer = null;
+                compact();
+                writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            log.debug("Failed to write ETag index '{}'", file, e);
+        }
+    }
+
+    /**
+     * Return true if most lines of the log are replaced or removed records.
+     */
+    private boolean isCompactable() {
+        return lines > records.size() * 2 + 16;
+    }
+
+    private int load() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int lines = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                String[] fields = line.split(" ", 4);
+                if (fields.length < 4) {
+                    continue; // truncated line
+                }
+                try {
+                    if (REMOVED.equals(fields[0])) {
+                        records.remove(fields[3]);
+                    } else {
+                        records.put(fields[3],
+                                new Record(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+                    }
+                } catch (NumberFormatException e) {
+                    log.debug("Invalid line of ETag index '{}': {}", file, line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Record> e : records.entrySet()) {
+                Record record = e.getValue();
+                w.write(record.digest + " " + record.size + " " + record.modificationTime + " " + e.getKey() + "\n");
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        lines = records.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ETagIndex [file=" + file + ", count=" + getCount() + "]";
+    }
+
+    private static final class Record {
+        final long size;
+        final long modificationTime;
+        final String digest;
+
+        Record(long size, long modificationTime, String digest) {
+            this.size = size;
+            this.modificationTime = modificationTime;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Output stream which computes digest of the content written to the wrapped
+     * stream.
+     */
+    public final class DigestingOutputStream extends FilterOutputStream {
+
+        private final MessageDigest md = newDigest();
+        private long written = 0;
+
+        private DigestingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            md.update((byte) b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            md.update(b, off, len);
+            written += len;
+        }
+
+        /**
+         * Add digest to the index if the whole content has been written.
+         */
+        public void commit(String path, long size, long modificationTime) {
+            if (written == size) {
+                put(path, size, modificationTime, encode(md.digest()));
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.alanger.webdav;
+
+/**
+ * Thread-safe formatter of WebDAV dates in GMT, same output as
+ * {@link org.apache.jackrabbit.webdav.util.HttpDateFormat} without
+ * <code>Date</code> and <code>SimpleDateFormat</code> instances. Dates before
+ * the Gregorian reform of 1582 are formatted in the proleptic Gregorian
+ * calendar.
+ * <p>
+ * Formatted strings are cached by epoch second in a small direct mapped
+ * table, so identical timestamps of large listings are formatted once.
+ * Entries are immutable, concurrent updates of a slot only lose the cached
+ * string.
+ */
+public final class HttpDates {
+
+    /**
+     * Number of cached strings of each format, power of two
+     */
+    public static final int CACHE_SIZE = 1024;
+
+    private static final String[] DAYS = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+
+    private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct",
+            "Nov", "Dec" };
+
+    private static final Entry[] MODIFICATION_CACHE = new Entry[CACHE_SIZE];
+    private static final Entry[] CREATION_CACHE = new Entry[CACHE_SIZE];
+
+    /**
+     * Avoid instantiation
+     */
+    private HttpDates() {
+    }
+
+    /**
+     * Format the time as RFC 1123 date, e.g.
+     * <code>Sun, 06 Nov 1994 08:49:37 GMT</code>.
+     *
+     * @see org.apache.jackrabbit.webdav.util.HttpDateFormat#MODIFICATION_DATE_PATTERN
+     */
+    public static String formatModification(long time) {
+        long second = Math.floorDiv(time, 1000L);
+        int slot = (int) second & (CACHE_SIZE - 1);
+        Entry entry = MODIFICATION_CACHE[slot];
+        if (entry != null && entry.second == second) {
+            return entry.value;
+        }
+        String value = format(second, false);
+        MODIFICATION_CACHE[slot] = new Entry(second, value);
+        return value;
+    }
+
+    /**
+     * Format the time as ISO 8601 date, e.g.
+     * <code>1994-11-06T08:49:37Z</code>.
+     *
+     * @see org.apache.jackrabbit.webdav.util.HttpDateFormat#CREATION_DATE_PATTERN
+     */
+    public static String formatCreation(long time) {
+        long second = Math.floorDiv(time, 1000L);
+        int slot = (int) second & (CACHE_SIZE - 1);
+        Entry entry = CREATION_CACHE[slot];
+        if (entry != null && entry.second == second) {
+            return entry.value;
+        }
+        String value = format(second, true);
+        CREATION_CACHE[slot] = new Entry(second, value);
+        return value;
+    }
+
+    private static String format(long second, boolean iso) {
+        long days = Math.floorDiv(second, 86400L);
+        int secondOfDay = (int) Math.floorMod(second, 86400L);
+
+        // civil date from days since epoch, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097L);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        StringBuilder sb = new StringBuilder(29);
+        if (iso) {
+            appendYear(sb, year);
+            sb.append('-');
+            append2(sb, month);
+            sb.append('-');
+            append2(sb, day);
+            sb.append('T');
+        } else {
+            sb.append(DAYS[(int) Math.floorMod(days + 4, 7L)]).append(", ");
+            append2(sb, day);
+            sb.append(' ').append(MONTHS[month - 1]).append(' ');
+            appendYear(sb, year);
+            sb.append(' ');
+        }
+        append2(sb, secondOfDay / 3600);
+        sb.append(':');
+        append2(sb, secondOfDay / 60 % 60);
+        sb.append(':');
+        append2(sb, secondOfDay % 60);
+        sb.append(iso ? "Z" : " GMT");
+        return sb.toString();
+    }
+
+    private static void append2(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static void appendYear(StringBuilder sb, long year) {
+        if (year >= 0 && year < 1000) {
+            sb.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        }
+        sb.append(year);
+    }
+
+    private static final class Entry {
+        final long second;
+        final String value;
+
+        Entry(long second, String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+}
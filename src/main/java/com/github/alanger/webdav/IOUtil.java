@@ -1,14 +1,16 @@
 package com.github.alanger.webdav;
 
 import org.apache.jackrabbit.webdav.DavConstants;
-import org.apache.jackrabbit.webdav.util.HttpDateFormat;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * See org.apache.jackrabbit.server.io.IOUtil
@@ -39,39 +41,164 @@ public final class IOUtil {
      * Return the last modification time as formatted string.
      *
      * @return last modification time as string.
-     * @see org.apache.jackrabbit.webdav.util.HttpDateFormat#modificationDateFormat()
+     * @see HttpDates#formatModification(long)
      */
     public static String getLastModified(long modificationTime) {
         if (modificationTime <= IOUtil.UNDEFINED_TIME) {
-            modificationTime = new Date().getTime();
+            modificationTime = System.currentTimeMillis();
         }
-        return HttpDateFormat.modificationDateFormat().format(new Date(modificationTime));
+        return HttpDates.formatModification(modificationTime);
     }
 
     /**
      * Return the creation time as formatted string.
      *
      * @return creation time as string.
-     * @see org.apache.jackrabbit.webdav.util.HttpDateFormat#creationDateFormat()
+     * @see HttpDates#formatCreation(long)
      */
     public static String getCreated(long createdTime) {
         if (createdTime <= IOUtil.UNDEFINED_TIME) {
             createdTime = 0;
         }
-        return HttpDateFormat.creationDateFormat().format(new Date(createdTime));
+        return HttpDates.formatCreation(createdTime);
     }
 
     /**
      */
     public static void spool(InputStream in, OutputStream out) throws IOException {
         try {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = in.read(buffer)) >= 0) {
+            copy(in, out, Long.MAX_VALUE, BufferPool.getDefault());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copy at most <code>length</code> bytes from the input stream to the output
+     * stream. Streams are not closed.
+     *
+     * @return number of copied bytes, less than <code>length</code> if the end
+     *         of stream has been reached.
+     */
+    public static long copy(InputStream in, OutputStream out, long length) throws IOException {
+        return copy(in, out, length, BufferPool.getDefault());
+    }
+
+    /**
+     * Copy at most <code>length</code> bytes from the input stream to the output
+     * stream using a buffer of the given pool. Streams are not closed.
+     *
+     * @return number of copied bytes, less than <code>length</code> if the end
+     *         of stream has been reached.
+     */
+    public static long copy(InputStream in, OutputStream out, long length, BufferPool pool) throws IOException {
+        byte[] buffer = pool.acquire();
+        int reads = 0;
+        int fullReads = 0;
+        long remaining = length;
+        try {
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                reads++;
+                if (read == buffer.length) {
+                    fullReads++;
+                }
                 out.write(buffer, 0, read);
+                remaining -= read;
             }
         } finally {
-            in.close();
+            pool.release(buffer);
+            pool.recordReads(reads, fullReads);
+        }
+        return length - remaining;
+    }
+
+    /**
+     * Copy <code>count</code> bytes of the file channel starting at
+     * <code>position</code> to the output stream through a buffer of the
+     * default pool, see
+     * {@link #spool(FileChannel, long, long, OutputStream, BufferPool)}.
+     */
+    public static long spool(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        return spool(channel, position, count, out, BufferPool.getDefault());
+    }
+
+    /**
+     * Copy <code>count</code> bytes of the file channel starting at
+     * <code>position</code> to the output stream. Bytes are read straight into
+     * a pooled heap buffer and written from it. If the output stream is a
+     * channel, as may be passed by embedding code, bytes are transferred with
+     * {@link FileChannel#transferTo} without copying to the heap. Streams are
+     * not closed.
+     *
+     * @return number of copied bytes, less than <code>count</code> if the end of
+     *         file has been reached.
+     */
+    public static long spool(FileChannel channel, long position, long count, OutputStream out, BufferPool pool)
+            throws IOException {
+        long end = Math.min(position + count, channel.size());
+        long pos = position;
+        if (out instanceof WritableByteChannel) {
+            WritableByteChannel target = (WritableByteChannel) out;
+            while (pos < end) {
+                long transferred = channel.transferTo(pos, end - pos, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                pos += transferred;
+            }
+            return pos - position;
+        }
+
+        byte[] chunk = pool.acquire();
+        int reads = 0;
+        int fullReads = 0;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            while (pos < end) {
+                buffer.clear();
+                if (end - pos < buffer.capacity()) {
+                    buffer.limit((int) (end - pos));
+                }
+                int read = channel.read(buffer, pos);
+                if (read < 0) {
+                    break;
+                }
+                reads++;
+                if (read == chunk.length) {
+                    fullReads++;
+                }
+                pos += read;
+                out.write(chunk, 0, read);
+            }
+        } finally {
+            pool.release(chunk);
+            pool.recordReads(reads, fullReads);
+        }
+        return pos - position;
+    }
+
+    /**
+     * Skip exactly <code>n</code> bytes of the input stream, reading if the
+     * stream does not support skipping.
+     *
+     * @throws EOFException
+     *             if the end of stream has been reached before
+     */
+    public static void skipFully(InputStream in, long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of stream, " + remaining + " bytes not skipped");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
         }
     }
 
@@ -158,11 +285,7 @@ public final class IOUtil {
         // we need a tmp file, since the import could fail
         File tmpFile = File.createTempFile("__importcontext", ".tmp");
         try (FileOutputStream out = new FileOutputStream(tmpFile);) {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = inputStream.read(buffer)) > 0) {
-                out.write(buffer, 0, read);
-            }
+            copy(inputStream, out, Long.MAX_VALUE, BufferPool.getDefault());
         } finally {
             inputStream.close();
         }
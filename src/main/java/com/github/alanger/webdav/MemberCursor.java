@@ -0,0 +1,106 @@
+package com.github.alanger.webdav;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iteration over members of a collection without creating all of them at
+ * once. Members are created from the cached listing if it is available,
+ * otherwise from the children of the listing in batches of
+ * {@link #BATCH_SIZE}, whose requested properties are initialized together.
+ * Returned children are released, so only members of the current batch are
+ * kept in memory.
+ */
+final class MemberCursor {
+
+    private static final Logger log = LoggerFactory.getLogger(MemberCursor.class);
+
+    /**
+     * Number of members created and initialized at once
+     */
+    static final int BATCH_SIZE = 64;
+
+    private final VfsDavResource parent;
+    private FileObject[] children;
+    private Iterator<MetadataCache.Entry> cached;
+    private int index = 0;
+    private final List<DavResource> batch = new ArrayList<>(BATCH_SIZE);
+    private int batchIndex = 0;
+
+    MemberCursor(VfsDavResource parent) {
+        this.parent = parent;
+    }
+
+    VfsDavResource getParent() {
+        return parent;
+    }
+
+    /**
+     * Return the next member or <code>null</code> if all members have been
+     * returned.
+     */
+    VfsDavResource next() {
+        if (children == null && cached == null) {
+            try {
+                Collection<MetadataCache.Entry> entries = parent.getCachedChildren();
+                cached = entries != null ? entries.iterator() : null;
+            } catch (IOException e) {
+                log.debug("Failed to list children of '{}'", parent.getResourcePath(), e);
+                cached = Collections.emptyIterator();
+            }
+        }
+        while (cached != null && cached.hasNext()) {
+            try {
+                DavResource member = parent.createMember(cached.next());
+                if (member instanceof VfsDavResource) {
+                    return (VfsDavResource) member;
+                }
+            } catch (DavException e) {
+                log.debug("Failed to create member of '{}'", parent.getResourcePath(), e);
+            }
+        }
+        if (cached != null) {
+            return null;
+        }
+        if (children == null) {
+            try {
+                children = parent.listChildren();
+            } catch (FileSystemException e) {
+                log.debug("Failed to list children of '{}'", parent.getResourcePath(), e);
+                children = new FileObject[0];
+            }
+        }
+        while (batchIndex >= batch.size()) {
+            if (index >= children.length) {
+                return null;
+            }
+            batch.clear();
+            batchIndex = 0;
+            while (index < children.length && batch.size() < BATCH_SIZE) {
+                FileObject child = children[index];
+                children[index++] = null; // release listed children
+                try {
+                    DavResource member = parent.createMember(child);
+                    if (member instanceof VfsDavResource) {
+                        batch.add(member);
+                    }
+                } catch (DavException e) {
+                    log.debug("Failed to create member '{}'", child, e);
+                }
+            }
+            parent.initMemberProperties(batch);
+        }
+        return (VfsDavResource) batch.get(batchIndex++);
+    }
+}
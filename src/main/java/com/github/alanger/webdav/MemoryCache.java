@@ -0,0 +1,324 @@
+package com.github.alanger.webdav;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap cache of small remote files.
+ * <p>
+ * Contents are stored in slots of direct buffer slabs, one slab size class per
+ * power of two from {@link #MIN_SLOT_SIZE} up to the maximum entry size.
+ * Entries are keyed by resource path and validated by size and modification
+ * time of the file. Slabs are allocated on demand up to the capacity, then
+ * least recently used entries of the same size class are evicted. Entries
+ * being spooled are never evicted.
+ */
+public class MemoryCache {
+
+    /**
+     * Default maximum size of cached files
+     */
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 64 * 1024;
+
+    /**
+     * Size of the smallest slots
+     */
+    public static final int MIN_SLOT_SIZE = 1024;
+
+    private static final int SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * Opens content stream of the file.
+     */
+    public interface ContentLoader {
+        InputStream open() throws IOException;
+    }
+
+    private final long capacity;
+    private final int maxEntrySize;
+    private final List<Deque<ByteBuffer>> freeSlots = new ArrayList<>();
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long allocated = 0;
+    private long size = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            maximum size of allocated slabs in bytes
+     * @param maxEntrySize
+     *            maximum size of cached files in bytes
+     */
+    public MemoryCache(long capacity, int maxEntrySize) {
+        if (maxEntrySize <= 0 || maxEntrySize > SLAB_SIZE) {
+            throw new IllegalArgumentException("Invalid memory cache entry size: " + maxEntrySize);
+        }
+        this.capacity = capacity;
+        this.maxEntrySize = maxEntrySize;
+        int slotSize = MIN_SLOT_SIZE;
+        freeSlots.add(new ArrayDeque<>());
+        while (slotSize < maxEntrySize) {
+            slotSize *= 2;
+            freeSlots.add(new ArrayDeque<>());
+        }
+        if (capacity < slotSize) {
+            throw new IllegalArgumentException("Invalid memory cache size: " + capacity);
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Size of allocated slabs in bytes.
+     */
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Total size of cached files in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Return true if a file of the given length may be cached.
+     */
+    public boolean isCacheable(long length) {
+        return length >= 0 && length <= maxEntrySize;
+    }
+
+    /**
+     * Write the cached content to the output stream. If the entry does not
+     * exist or has another size or modification time, the content is loaded
+     * into the cache first.
+     *
+     * @return <code>false</code> if the content is not cacheable or no slot is
+     *         available, nothing has been written then.
+     */
+    public boolean spool(String path, long length, long modificationTime, OutputStream out, ContentLoader loader,
+            BufferPool pool) throws IOException {
+        if (!isCacheable(length)) {
+            return false;
+        }
+        Entry entry = pin(path, length, modificationTime);
+        if (entry != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+            entry = load(path, length, modificationTime, loader, pool);
+            if (entry == null) {
+                return false;
+            }
+        }
+        try {
+            write(entry, out, pool);
+        } finally {
+            unpin(entry);
+        }
+        return true;
+    }
+
+    private Entry load(String path, long length, long modificationTime, ContentLoader loader, BufferPool pool)
+            throws IOException {
+        int sizeClass = sizeClass((int) length);
+        ByteBuffer slot = reserve(sizeClass);
+        if (slot == null) {
+            return null;
+        }
+        Entry entry = new Entry(path, length, modificationTime, sizeClass, slot);
+        entry.pins = 1;
+        byte[] chunk = pool.acquire();
+        try (InputStream is = loader.open()) {
+            ByteBuffer dst = slot.duplicate();
+            dst.clear();
+            while (dst.position() < length) {
+                int read = is.read(chunk, 0, (int) Math.min(chunk.length, length - dst.position()));
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of content at '" + path + "'");
+                }
+                dst.put(chunk, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            release(sizeClass, slot);
+            throw e;
+        } finally {
+            pool.release(chunk);
+        }
+        publish(entry);
+        return entry;
+    }
+
+    private void write(Entry entry, OutputStream out, BufferPool pool) throws IOException {
+        ByteBuffer src = entry.slot.duplicate();
+        src.position(0).limit((int) entry.length);
+        if (out instanceof WritableByteChannel) {
+            WritableByteChannel channel = (WritableByteChannel) out;
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+            return;
+        }
+        byte[] chunk = pool.acquire();
+        try {
+            while (src.hasRemaining()) {
+                int count = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+        } finally {
+            pool.release(chunk);
+        }
+    }
+
+    private int sizeClass(int length) {
+        int sizeClass = 0;
+        for (int slotSize = MIN_SLOT_SIZE; slotSize < length; slotSize *= 2) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    private synchronized Entry pin(String path, long length, long modificationTime) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.length != length || entry.modificationTime != modificationTime) {
+            remove(path);
+            return null;
+        }
+        entry.pins++;
+        return entry;
+    }
+
+    private synchronized void unpin(Entry entry) {
+        if (--entry.pins == 0 && entry.removed) {
+            release(entry.sizeClass, entry.slot);
+        }
+    }
+
+    private synchronized void publish(Entry entry) {
+        remove(entry.path);
+        entries.put(entry.path, entry);
+        size += entry.length;
+    }
+
+    private synchronized ByteBuffer reserve(int sizeClass) {
+        Deque<ByteBuffer> free = freeSlots.get(sizeClass);
+        ByteBuffer slot = free.poll();
+        if (slot != null) {
+            return slot;
+        }
+        int slotSize = MIN_SLOT_SIZE << sizeClass;
+        int slabSize = (int) (Math.min(SLAB_SIZE, capacity) / slotSize * slotSize);
+        if (allocated + slabSize <= capacity) {
+            ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+            allocated += slabSize;
+            for (int offset = 0; offset + slotSize <= slabSize; offset += slotSize) {
+                slab.limit(offset + slotSize).position(offset);
+                free.add(slab.slice());
+            }
+            return free.poll();
+        }
+        // evict least recently used entry of the same size class
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.sizeClass == sizeClass && entry.pins == 0) {
+                it.remove();
+                size -= entry.length;
+                return entry.slot;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void release(int sizeClass, ByteBuffer slot) {
+        freeSlots.get(sizeClass).add(slot);
+    }
+
+    private void remove(String path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            size -= entry.length;
+            entry.removed = true;
+            if (entry.pins == 0) {
+                release(entry.sizeClass, entry.slot);
+            }
+        }
+    }
+
+    /**
+     * Remove the entry of the path and all entries below it.
+     */
+    public synchronized void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        List<String> paths = new ArrayList<>();
+        for (String entryPath : entries.keySet()) {
+            if (entryPath.equals(path) || entryPath.startsWith(prefix)) {
+                paths.add(entryPath);
+            }
+        }
+        for (String entryPath : paths) {
+            remove(entryPath);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryCache [capacity=" + capacity + ", maxEntrySize=" + maxEntrySize + ", allocated="
+                + getAllocated() + ", size=" + getSize() + ", count=" + getCount() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + "]";
+    }
+
+    private static final class Entry {
+        final String path;
+        final long length;
+        final long modificationTime;
+        final int sizeClass;
+        final ByteBuffer slot;
+        int pins = 0;
+        boolean removed = false;
+
+        Entry(String path, long length, long modificationTime, int sizeClass, ByteBuffer slot) {
+            this.path = path;
+            this.length = length;
+            this.modificationTime = modificationTime;
+            this.sizeClass = sizeClass;
+            this.slot = slot;
+        }
+    }
+}
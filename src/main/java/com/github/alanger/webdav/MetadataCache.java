@@ -0,0 +1,318 @@
+package com.github.alanger.webdav;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of directory listings with type, size and modification time of every
+ * child, used to answer repeated <code>PROPFIND</code> requests of remote file
+ * systems without accessing them.
+ * <p>
+ * A listing is fresh during the time to live. During the following stale
+ * period it is still served, while it is refreshed in background. Later it is
+ * loaded again, if loading fails the stale listing is served. Listings are
+ * invalidated by changes made through the servlet, total number of cached
+ * entries is bounded, least recently used listings are evicted first.
+ */
+public class MetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MetadataCache.class);
+
+    /**
+     * Loads children of a directory.
+     */
+    public interface Loader {
+        List<Entry> load() throws IOException;
+    }
+
+    private final long ttl;
+    private final long stale;
+    private final long capacity;
+    private final ExecutorService executor;
+    private final Map<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long invalidated = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param ttl
+     *            time to live of listings in milliseconds
+     * @param stale
+     *            time in milliseconds after the time to live, while listings
+     *            are served and refreshed in background
+     * @param capacity
+     *            maximum number of cached entries
+     * @param executor
+     *            executor of background refresh, <code>null</code> if
+     *            listings are refreshed by requests
+     */
+    public MetadataCache(long ttl, long stale, long capacity, ExecutorService executor) {
+        if (ttl <= 0 || stale < 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Invalid metadata cache: " + ttl + "/" + stale + "/" + capacity);
+        }
+        this.ttl = ttl;
+        this.stale = stale;
+        this.capacity = capacity;
+        this.executor = executor;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public long getStale() {
+        return stale;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return listings.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of stale listings served while refreshing.
+     */
+    public long getStaleCount() {
+        return staleCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Return children of the directory, loaded by the loader if the listing is
+     * missing or expired.
+     *
+     * @throws IOException
+     *             if loading fails and no listing is cached
+     */
+    public Collection<Entry> getListing(String path, Loader loader) throws IOException {
+        long now = System.currentTimeMillis();
+        Listing listing = get(path);
+        if (listing != null && now - listing.loaded < ttl) {
+            hitCount.incrementAndGet();
+            return listing.entries.values();
+        }
+        if (listing != null && now - listing.loaded < ttl + stale && refresh(path, listing, loader)) {
+            staleCount.incrementAndGet();
+            return listing.entries.values();
+        }
+        missCount.incrementAndGet();
+        try {
+            return load(path, loader).entries.values();
+        } catch (IOException | RuntimeException e) {
+            if (listing == null) {
+                throw e;
+            }
+            log.warn("Failed to load listing of '{}', stale listing is served: {}", path, e.toString());
+            log.debug("Failed to load listing of '{}'", path, e);
+            return listing.entries.values();
+        }
+    }
+
+    /**
+     * Return entry of the path from fresh or stale listing of its parent,
+     * <code>null</code> if the listing is not cached or does not contain the
+     * path. Expired listings are not loaded.
+     */
+    public Entry getEntry(String path) {
+        int slash = path.lastIndexOf('/', path.length() - 2);
+        if (slash < 0 || slash == path.length() - 1) {
+            return null;
+        }
+        String parent = slash == 0 ? "/" : path.substring(0, slash);
+        String name = path.endsWith("/") ? path.substring(slash + 1, path.length() - 1) : path.substring(slash + 1);
+        Listing listing = get(parent);
+        if (listing == null || System.currentTimeMillis() - listing.loaded >= ttl + stale) {
+            return null;
+        }
+        return listing.entries.get(name);
+    }
+
+    private Listing load(String path, Loader loader) throws IOException {
+        long loaded = System.currentTimeMillis();
+        List<Entry> entries = loader.load();
+        Listing listing = new Listing(entries, loaded);
+        put(path, listing);
+        return listing;
+    }
+
+    private boolean refresh(String path, Listing listing, Loader loader) {
+        if (executor == null) {
+            return false;
+        }
+        synchronized (listing) {
+            if (listing.refreshing) {
+                return true;
+            }
+            listing.refreshing = true;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    load(path, loader);
+                } catch (IOException | RuntimeException e) {
+                    log.debug("Failed to refresh listing of '{}'", path, e);
+                } finally {
+                    listing.refreshing = false;
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            listing.refreshing = false;
+            return false;
+        }
+    }
+
+    private synchronized Listing get(String path) {
+        return listings.get(path);
+    }
+
+    private synchronized void put(String path, Listing listing) {
+        if (listing.entries.size() > capacity) {
+            remove(path);
+            return; // never cached
+        }
+        Listing old = listings.get(path);
+        if (old != null && old.loaded > listing.loaded || listing.loaded <= invalidated) {
+            return; // loaded by another request later or changed while loading
+        }
+        remove(path);
+        listings.put(path, listing);
+        size += listing.entries.size();
+        Iterator<Listing> it = listings.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().entries.size();
+            it.remove();
+        }
+    }
+
+    private void remove(String path) {
+        Listing listing = listings.remove(path);
+        if (listing != null) {
+            size -= listing.entries.size();
+        }
+    }
+
+    /**
+     * Remove listing of the path, all listings below it and listing of its
+     * parent.
+     */
+    public synchronized void invalidate(String path) {
+        invalidated = System.currentTimeMillis();
+        String normalized = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        String prefix = normalized.endsWith("/") ? normalized : normalized + "/";
+        List<String> paths = new ArrayList<>();
+        for (String listingPath : listings.keySet()) {
+            if (listingPath.equals(normalized) || listingPath.startsWith(prefix)) {
+                paths.add(listingPath);
+            }
+        }
+        int slash = normalized.lastIndexOf('/');
+        if (slash >= 0 && normalized.length() > 1) {
+            paths.add(slash == 0 ? "/" : normalized.substring(0, slash));
+        }
+        for (String listingPath : paths) {
+            remove(listingPath);
+        }
+    }
+
+    /**
+     * Remove all listings.
+     */
+    public synchronized void clear() {
+        invalidated = System.currentTimeMillis();
+        listings.clear();
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataCache [ttl=" + ttl + ", stale=" + stale + ", capacity=" + capacity + ", size=" + getSize()
+                + ", count=" + getCount() + ", hits=" + getHitCount() + ", stale hits=" + getStaleCount()
+                + ", misses=" + getMissCount() + "]";
+    }
+
+    private static final class Listing {
+        final Map<String, Entry> entries;
+        final long loaded;
+        volatile boolean refreshing = false;
+
+        Listing(List<Entry> list, long loaded) {
+            Map<String, Entry> map = new LinkedHashMap<>(list.size() * 4 / 3 + 1);
+            for (Entry entry : list) {
+                map.put(entry.getName(), entry);
+            }
+            this.entries = Collections.unmodifiableMap(map);
+            this.loaded = loaded;
+        }
+    }
+
+    /**
+     * Child of a directory with its type, size and modification time.
+     */
+    public static final class Entry {
+        private final String name;
+        private final FileObject fileObject;
+        private final FileType type;
+        private final long contentLength;
+        private final long modificationTime;
+
+        public Entry(String name, FileObject fileObject, FileType type, long contentLength, long modificationTime) {
+            this.name = name;
+            this.fileObject = fileObject;
+            this.type = type;
+            this.contentLength = contentLength;
+            this.modificationTime = modificationTime;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public FileObject getFileObject() {
+            return fileObject;
+        }
+
+        public FileType getType() {
+            return type;
+        }
+
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.alanger.webdav;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable table of MIME types by file extension, used instead of content
+ * info of the file system for each resource.
+ * <p>
+ * The table is loaded once from a file in format of
+ * <code>content-types.properties</code> (property
+ * <code>content.types.user.table</code> or the bundled file), overrides are
+ * given as <code>ext:type</code> pairs. Extensions are matched case
+ * insensitive, lookups do not allocate memory.
+ */
+public final class MimeTypes {
+
+    private static final Logger log = LoggerFactory.getLogger(MimeTypes.class);
+
+    /**
+     * System property of the MIME types table, see {@link java.net.URLConnection#getFileNameMap()}
+     */
+    public static final String TABLE_PROPERTY = "content.types.user.table";
+
+    /**
+     * Bundled MIME types table
+     */
+    public static final String TABLE_RESOURCE = "content-types.properties";
+
+    private static final String EXTENSIONS = "file_extensions";
+
+    private static volatile MimeTypes defaultTypes;
+
+    private final String[] keys;
+    private final String[] values;
+    private final int mask;
+    private final int count;
+
+    private MimeTypes(Map<String, String> types) {
+        int capacity = 16;
+        while (capacity < types.size() * 2) {
+            capacity *= 2;
+        }
+        this.keys = new String[capacity];
+        this.values = new String[capacity];
+        this.mask = capacity - 1;
+        this.count = types.size();
+        for (Map.Entry<String, String> e : types.entrySet()) {
+            String key = e.getKey();
+            int i = hash(key, 0, key.length()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = e.getValue();
+        }
+    }
+
+    /**
+     * Table loaded from property <code>content.types.user.table</code> if it
+     * is set, from the bundled file otherwise.
+     */
+    public static MimeTypes getDefault() {
+        MimeTypes types = defaultTypes;
+        if (types == null) {
+            synchronized (MimeTypes.class) {
+                types = defaultTypes;
+                if (types == null) {
+                    types = loadDefault();
+                    defaultTypes = types;
+                }
+            }
+        }
+        return types;
+    }
+
+    private static MimeTypes loadDefault() {
+        Map<String, String> types = new LinkedHashMap<>();
+        String table = System.getProperty(TABLE_PROPERTY);
+        try (InputStream is = table != null && new File(table).isFile() ? new FileInputStream(table)
+                : MimeTypes.class.getResourceAsStream(TABLE_RESOURCE)) {
+            if (is != null) {
+                parse(is, types);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to load MIME types table '{}'", table != null ? table : TABLE_RESOURCE, e);
+        }
+        return new MimeTypes(types);
+    }
+
+    /**
+     * Load table from the stream in format of
+     * <code>content-types.properties</code>, the stream is not closed.
+     */
+    public static MimeTypes load(InputStream is) throws IOException {
+        Map<String, String> types = new LinkedHashMap<>();
+        parse(is, types);
+        return new MimeTypes(types);
+    }
+
+    private static void parse(InputStream is, Map<String, String> types) throws IOException {
+        Properties props = new Properties();
+        props.load(is);
+        for (String type : props.stringPropertyNames()) {
+            for (String attribute : props.getProperty(type).split(";")) {
+                int eq = attribute.indexOf('=');
+                if (eq < 0 || !EXTENSIONS.equals(attribute.substring(0, eq).trim())) {
+                    continue;
+                }
+                for (String ext : attribute.substring(eq + 1).split(",")) {
+                    ext = ext.trim();
+                    if (ext.startsWith(".")) {
+                        ext = ext.substring(1);
+                    }
+                    if (!ext.isEmpty()) {
+                        types.put(ext.toLowerCase(Locale.ROOT), type.trim());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return new table with the given types added or replaced.
+     *
+     * @param overrides
+     *            comma separated list of <code>ext:type</code> pairs
+     */
+    public MimeTypes withOverrides(String overrides) {
+        Map<String, String> types = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                types.put(keys[i], values[i]);
+            }
+        }
+        for (String pair : overrides.split(",")) {
+            int colon = pair.indexOf(':');
+            if (colon <= 0 || colon == pair.length() - 1) {
+                throw new IllegalArgumentException("Invalid MIME type: " + pair);
+            }
+            String ext = pair.substring(0, colon).trim();
+            if (ext.startsWith(".")) {
+                ext = ext.substring(1);
+            }
+            types.put(ext.toLowerCase(Locale.ROOT), pair.substring(colon + 1).trim());
+        }
+        return new MimeTypes(types);
+    }
+
+    /**
+     * Number of known extensions.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return MIME type of the file name by its extension or <code>null</code>
+     * if the extension is unknown.
+     */
+    public String getContentType(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1 || fileName.indexOf('/', dot) >= 0) {
+            return null;
+        }
+        int from = dot + 1;
+        int length = fileName.length() - from;
+        int i = hash(fileName, from, fileName.length()) & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (key.length() == length && fileName.regionMatches(true, from, key, 0, length)) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    private static int hash(String s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + Character.toLowerCase(s.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "MimeTypes [size=" + count + "]";
+    }
+}
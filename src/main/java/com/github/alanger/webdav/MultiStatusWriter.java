@@ -0,0 +1,225 @@
+package com.github.alanger.webdav;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Streaming writer of <code>multistatus</code> responses, see
+ * {@link org.apache.jackrabbit.webdav.MultiStatus}.
+ * <p>
+ * Every <code>response</code> element is written as soon as properties of its
+ * resource are read, only the DOM of a single response is kept in memory.
+ */
+public class MultiStatusWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiStatusWriter.class);
+
+    /**
+     * Number of members created and initialized at once by
+     * {@link #writeTree(VfsDavResource, DavPropertyNameSet, int, int, long, long)}
+     */
+    public static final int BATCH_SIZE = MemberCursor.BATCH_SIZE;
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        OUTPUT_FACTORY.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+    }
+
+    private final XMLStreamWriter writer;
+    private final DocumentBuilder documentBuilder;
+    private boolean closed = false;
+
+    /**
+     * Start the <code>multistatus</code> document, the stream is not closed.
+     */
+    public MultiStatusWriter(OutputStream out) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            this.documentBuilder = factory.newDocumentBuilder();
+            this.writer = OUTPUT_FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.writeStartElement(DavConstants.NAMESPACE.getPrefix(), DavConstants.XML_MULTISTATUS,
+                    DavConstants.NAMESPACE.getURI());
+        } catch (ParserConfigurationException | XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write responses of the resource and its members up to the given depth by
+     * iterative traversal of the tree. Only children of the collections on
+     * the current path are kept in memory, members are created and their
+     * properties are read in batches of {@link #BATCH_SIZE}.
+     * <p>
+     * If the number of responses or the time exceeds the limits, the
+     * traversal is stopped and the collection being traversed is reported
+     * with status 507 (Insufficient Storage), see RFC 4918.
+     *
+     * @param maxEntries
+     *            maximum number of responses, <code>-1</code> if unlimited
+     * @param timeout
+     *            maximum time of traversal in milliseconds, <code>-1</code>
+     *            if unlimited
+     * @return number of written responses
+     */
+    public long writeTree(VfsDavResource resource, DavPropertyNameSet propNameSet, int propFindType, int depth,
+            long maxEntries, long timeout) throws IOException {
+        long deadline = timeout >= 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        write(new MultiStatusResponse(resource, propNameSet, propFindType));
+        long count = 1;
+        Deque<Level> levels = new ArrayDeque<>();
+        if (depth > 0 && resource.isCollection()) {
+            levels.push(new Level(resource, 1));
+        }
+        while (!levels.isEmpty()) {
+            Level level = levels.peek();
+            VfsDavResource member = level.next();
+            if (member == null) {
+                levels.pop();
+                continue;
+            }
+            if ((maxEntries >= 0 && count >= maxEntries) || System.currentTimeMillis() > deadline) {
+                log.warn("PROPFIND of '{}' truncated at '{}' after {} responses", resource.getResourcePath(),
+                        level.parent.getResourcePath(), count);
+                write(new MultiStatusResponse(level.parent.getHref(),
+                        DavServletResponse.SC_INSUFFICIENT_SPACE_ON_RESOURCE, null));
+                break;
+            }
+            write(new MultiStatusResponse(member, propNameSet, propFindType));
+            count++;
+            if (level.depth < depth && member.isCollection()) {
+                levels.push(new Level(member, level.depth + 1));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the <code>response</code> element, it is sent when the buffer of
+     * the writer is full.
+     */
+    public void write(MultiStatusResponse response) throws IOException {
+        Document document = documentBuilder.newDocument();
+        try {
+            writeElement(response.toXml(document));
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private void writeElement(Element element) throws XMLStreamException {
+        String uri = element.getNamespaceURI();
+        String localName = element.getLocalName() != null ? element.getLocalName() : element.getTagName();
+        boolean empty = !element.hasChildNodes();
+        if (uri != null) {
+            String prefix = element.getPrefix() != null ? element.getPrefix() : "";
+            if (empty) {
+                writer.writeEmptyElement(prefix, localName, uri);
+            } else {
+                writer.writeStartElement(prefix, localName, uri);
+            }
+        } else if (empty) {
+            writer.writeEmptyElement(localName);
+        } else {
+            writer.writeStartElement(localName);
+        }
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr) attributes.item(i);
+            String name = attr.getLocalName() != null ? attr.getLocalName() : attr.getName();
+            if ("xmlns".equals(attr.getPrefix()) || "xmlns".equals(attr.getName())) {
+                continue; // declared by the writer
+            }
+            if (attr.getNamespaceURI() != null) {
+                String prefix = attr.getPrefix();
+                writer.writeAttribute(prefix != null ? prefix : "", attr.getNamespaceURI(), name, attr.getValue());
+            } else {
+                writer.writeAttribute(name, attr.getValue());
+            }
+        }
+        if (empty) {
+            return;
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                writeElement((Element) child);
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                writer.writeCharacters(child.getNodeValue());
+                break;
+            default:
+                break;
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Members of a collection being traversed.
+     */
+    private static final class Level {
+        final VfsDavResource parent;
+        final int depth;
+        private final MemberCursor members;
+
+        Level(VfsDavResource parent, int depth) {
+            this.parent = parent;
+            this.depth = depth;
+            this.members = new MemberCursor(parent);
+        }
+
+        /**
+         * Return the next member or <code>null</code> if all members have been
+         * returned.
+         */
+        VfsDavResource next() {
+            return members.next();
+        }
+    }
+
+    /**
+     * End the <code>multistatus</code> document, the stream is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
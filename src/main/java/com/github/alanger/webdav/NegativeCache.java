@@ -0,0 +1,159 @@
+package com.github.alanger.webdav;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of paths not found in the file system, used to answer repeated probes
+ * of clients (e.g. <code>desktop.ini</code>, <code>.DS_Store</code>) without
+ * accessing remote file systems.
+ * <p>
+ * Paths are cached for the time to live, the number of paths is bounded and
+ * least recently used paths are evicted first. Paths created through the
+ * servlet are invalidated together with all paths below them.
+ */
+public class NegativeCache {
+
+    private final long ttl;
+    private final int capacity;
+    private final Map<String, Long> paths;
+    private long invalidated = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * @param ttl
+     *            time to live of paths in milliseconds
+     * @param capacity
+     *            maximum number of cached paths
+     */
+    public NegativeCache(long ttl, int capacity) {
+        if (ttl <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Invalid negative cache: " + ttl + "/" + capacity);
+        }
+        this.ttl = ttl;
+        this.capacity = capacity;
+        this.paths = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > NegativeCache.this.capacity;
+            }
+        };
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getCount() {
+        return paths.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Return true if the path was not found within the time to live.
+     */
+    public boolean isMissing(String path) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Long expires = paths.get(path);
+            if (expires == null) {
+                return false;
+            }
+            if (expires <= now) {
+                paths.remove(path);
+                return false;
+            }
+        }
+        hitCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remember the path not found by the lookup started at the given time, the
+     * path is not cached if it was invalidated since then.
+     */
+    public synchronized void put(String path, long checked) {
+        if (checked <= invalidated) {
+            return; // created while checking
+        }
+        paths.put(path, checked + ttl);
+    }
+
+    /**
+     * Remove the path and all paths below it.
+     */
+    public synchronized void invalidate(String path) {
+        invalidated = System.currentTimeMillis();
+        String normalized = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        String prefix = normalized.endsWith("/") ? normalized : normalized + "/";
+        Iterator<String> it = paths.keySet().iterator();
+        while (it.hasNext()) {
+            String cached = it.next();
+            if (cached.equals(normalized) || cached.startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all paths.
+     */
+    public synchronized void clear() {
+        invalidated = System.currentTimeMillis();
+        paths.clear();
+    }
+
+    /**
+     * Compile comma separated list of name patterns with wildcards
+     * <code>*</code> and <code>?</code>, names are matched case insensitive.
+     *
+     * @return pattern or <code>null</code> if the list is empty
+     */
+    public static Pattern compileNames(String names) {
+        StringBuilder regex = new StringBuilder();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            int start = 0;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (i > start) {
+                        regex.append(Pattern.quote(name.substring(start, i)));
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                    start = i + 1;
+                }
+            }
+            if (start < name.length()) {
+                regex.append(Pattern.quote(name.substring(start)));
+            }
+        }
+        return regex.length() > 0 ? Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)
+                : null;
+    }
+
+    @Override
+    public String toString() {
+        return "NegativeCache [ttl=" + ttl + ", capacity=" + capacity + ", count=" + getCount() + ", hits="
+                + getHitCount() + "]";
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.alanger.webdav;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+import org.apache.jackrabbit.webdav.xml.Namespace;
+
+/**
+ * Type and property names of <code>PROPFIND</code> request, the request body
+ * is parsed by a streaming reader without building a DOM document.
+ */
+public class PropFindInfo {
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private static final String XML_INCLUDE = "include";
+
+    private final int type;
+    private final DavPropertyNameSet propertyNames;
+
+    public PropFindInfo(int type, DavPropertyNameSet propertyNames) {
+        this.type = type;
+        this.propertyNames = propertyNames;
+    }
+
+    /**
+     * Type of request, see {@link DavConstants#PROPFIND_BY_PROPERTY},
+     * {@link DavConstants#PROPFIND_ALL_PROP},
+     * {@link DavConstants#PROPFIND_ALL_PROP_INCLUDE} and
+     * {@link DavConstants#PROPFIND_PROPERTY_NAMES}.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Requested or included property names, empty if not specified.
+     */
+    public DavPropertyNameSet getPropertyNames() {
+        return propertyNames;
+    }
+
+    /**
+     * Parse body of the request, empty body is <code>allprop</code> request.
+     *
+     * @throws DavException
+     *             400 (Bad Request) if the body is not a valid
+     *             <code>propfind</code> element
+     */
+    public static PropFindInfo parse(InputStream in) throws IOException, DavException {
+        InputStream is = new BufferedInputStream(in);
+        is.mark(1);
+        if (is.read() < 0) {
+            return new PropFindInfo(DavConstants.PROPFIND_ALL_PROP, new DavPropertyNameSet());
+        }
+        is.reset();
+
+        boolean prop = false;
+        boolean allprop = false;
+        boolean propname = false;
+        DavPropertyNameSet names = new DavPropertyNameSet();
+        DavPropertyNameSet includes = new DavPropertyNameSet();
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(is);
+            reader.nextTag();
+            if (!isDav(reader, DavConstants.XML_PROPFIND)) {
+                throw badRequest("Root element of PROPFIND must be DAV:propfind");
+            }
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (isDav(reader, DavConstants.XML_PROP)) {
+                    prop = true;
+                    readNames(reader, names);
+                } else if (isDav(reader, DavConstants.XML_ALLPROP)) {
+                    allprop = true;
+                    skip(reader);
+                } else if (isDav(reader, XML_INCLUDE)) {
+                    readNames(reader, includes);
+                } else if (isDav(reader, DavConstants.XML_PROPNAME)) {
+                    propname = true;
+                    skip(reader);
+                } else {
+                    skip(reader); // unknown elements are ignored
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new DavException(HttpServletResponse.SC_BAD_REQUEST, e.getMessage(), e, null);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // ignore
+                }
+            }
+        }
+        if ((prop ? 1 : 0) + (allprop ? 1 : 0) + (propname ? 1 : 0) != 1) {
+            throw badRequest("PROPFIND must contain one of DAV:prop, DAV:allprop or DAV:propname");
+        }
+        if (allprop) {
+            return includes.isEmpty() ? new PropFindInfo(DavConstants.PROPFIND_ALL_PROP, includes)
+                    : new PropFindInfo(DavConstants.PROPFIND_ALL_PROP_INCLUDE, includes);
+        }
+        int type = prop ? DavConstants.PROPFIND_BY_PROPERTY : DavConstants.PROPFIND_PROPERTY_NAMES;
+        return new PropFindInfo(type, names);
+    }
+
+    private static void readNames(XMLStreamReader reader, DavPropertyNameSet names) throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String uri = reader.getNamespaceURI();
+            String prefix = reader.getPrefix();
+            Namespace namespace = uri != null && !uri.isEmpty()
+                    ? Namespace.getNamespace(prefix != null ? prefix : "", uri)
+                    : Namespace.EMPTY_NAMESPACE;
+            names.add(DavPropertyName.create(reader.getLocalName(), namespace));
+            skip(reader);
+        }
+    }
+
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int level = 1;
+        while (level > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                level++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                level--;
+            }
+        }
+    }
+
+    private static boolean isDav(XMLStreamReader reader, String localName) {
+        return DavConstants.NAMESPACE.getURI().equals(reader.getNamespaceURI())
+                && localName.equals(reader.getLocalName());
+    }
+
+    private static DavException badRequest(String message) {
+        return new DavException(HttpServletResponse.SC_BAD_REQUEST, message);
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.alanger.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Input stream which reads the wrapped stream ahead in a background task, so
+ * reads from a slow file system overlap with writes to the client.
+ * <p>
+ * Up to <code>depth</code> chunks taken from the {@link BufferPool} are
+ * buffered. The wrapped stream is only read by the background task, but it is
+ * closed by the thread which closes this stream, since file systems track open
+ * streams per thread. Closing waits until the task does not read the wrapped
+ * stream anymore, since streams of file systems are not thread-safe.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final Chunk EOF = new Chunk(null, -1, null);
+
+    private final InputStream in;
+    private final BufferPool pool;
+    private final BlockingQueue<Chunk> queue;
+    private final Future<?> task;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean closed = false;
+
+    private Chunk current = null;
+    private int position = 0;
+
+    /**
+     * @param in
+     *            wrapped stream
+     * @param limit
+     *            maximum number of bytes to read ahead from the wrapped stream
+     * @param depth
+     *            maximum number of buffered chunks
+     * @param pool
+     *            pool of chunk buffers
+     * @param executor
+     *            executor of the background task
+     */
+    public ReadAheadInputStream(InputStream in, long limit, int depth, BufferPool pool, ExecutorService executor) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("Invalid read-ahead depth: " + depth);
+        }
+        this.in = in;
+        this.pool = pool;
+        this.queue = new ArrayBlockingQueue<>(depth + 1);
+        this.task = executor.submit(() -> readAhead(limit));
+    }
+
+    private void readAhead(long limit) {
+        if (!started.compareAndSet(false, true)) {
+            return; // closed before start
+        }
+        long remaining = limit;
+        int reads = 0;
+        int fullReads = 0;
+        try {
+            while (!closed && remaining > 0) {
+                byte[] buffer = pool.acquire();
+                int read;
+                try {
+                    read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                } catch (IOException | RuntimeException e) {
+                    pool.release(buffer);
+                    throw e;
+                }
+                if (read < 0) {
+                    pool.release(buffer);
+                    break;
+                }
+                reads++;
+                if (read == buffer.length) {
+                    fullReads++;
+                }
+                remaining -= read;
+                try {
+                    queue.put(new Chunk(buffer, read, null));
+                } catch (InterruptedException e) {
+                    pool.release(buffer);
+                    throw e;
+                }
+            }
+            queue.put(EOF);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                try {
+                    queue.put(new Chunk(null, -1, e instanceof IOException ? (IOException) e : new IOException(e)));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            pool.recordReads(reads, fullReads);
+            if (closed) {
+                drain();
+            }
+            finished.countDown();
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (current != null && current != EOF && position < current.length) {
+            return true;
+        }
+        if (current == EOF) {
+            return false;
+        }
+        if (current != null) {
+            pool.release(current.buffer);
+            current = null;
+        }
+        Chunk chunk;
+        try {
+            chunk = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Read-ahead interrupted");
+        }
+        if (chunk.error != null) {
+            current = EOF;
+            throw chunk.error;
+        }
+        current = chunk;
+        position = 0;
+        return chunk != EOF;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        return current.buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current.buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current != null && current != EOF ? current.length - position : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!started.compareAndSet(false, true)) {
+            // interrupt a blocked put, a read of the wrapped stream is completed
+            task.cancel(true);
+            awaitFinished();
+        }
+        if (current != null && current != EOF) {
+            pool.release(current.buffer);
+        }
+        current = EOF;
+        drain();
+        in.close();
+    }
+
+    private void awaitFinished() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        Chunk chunk;
+        while ((chunk = queue.poll()) != null) {
+            if (chunk.buffer != null) {
+                pool.release(chunk.buffer);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] buffer;
+        final int length;
+        final IOException error;
+
+        Chunk(byte[] buffer, int length, IOException error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
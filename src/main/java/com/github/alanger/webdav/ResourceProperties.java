@@ -0,0 +1,218 @@
+package com.github.alanger.webdav;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockDiscovery;
+import org.apache.jackrabbit.webdav.lock.LockEntry;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.SupportedLock;
+import org.apache.jackrabbit.webdav.lock.Type;
+import org.apache.jackrabbit.webdav.property.DavProperty;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
+import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+import org.apache.jackrabbit.webdav.property.ResourceType;
+
+/**
+ * Properties of a resource kept in an array with a slot for every live
+ * property, used instead of {@link DavPropertySet} which allocates a hash map
+ * per resource. Other properties are kept in a property set created on
+ * demand.
+ * <p>
+ * Properties equal for all resources are shared instances, which can not be
+ * modified.
+ */
+public final class ResourceProperties {
+
+    public static final ResourceType RESOURCETYPE_COLLECTION = new SharedResourceType(ResourceType.COLLECTION);
+    public static final ResourceType RESOURCETYPE_DEFAULT = new SharedResourceType(ResourceType.DEFAULT_RESOURCE);
+
+    // Windows XP support
+    public static final DavProperty<String> ISCOLLECTION_TRUE = new DefaultDavProperty<>(
+            DavPropertyName.ISCOLLECTION, "1");
+    public static final DavProperty<String> ISCOLLECTION_FALSE = new DefaultDavProperty<>(
+            DavPropertyName.ISCOLLECTION, "0");
+
+    /**
+     * Lock support information, all resources are lockable by exclusive write
+     * locks.
+     */
+    public static final SupportedLock SUPPORTEDLOCK = new SharedSupportedLock(Type.WRITE, Scope.EXCLUSIVE);
+
+    /**
+     * Lock discovery of resources without lock.
+     */
+    public static final LockDiscovery LOCKDISCOVERY_EMPTY = new SharedLockDiscovery();
+
+    /**
+     * Maximum number of shared content type properties
+     */
+    private static final int MAX_CONTENT_TYPES = 1024;
+
+    private static final Map<String, DavProperty<String>> CONTENT_TYPES = new ConcurrentHashMap<>();
+
+    private static final DavPropertyName[] NAMES = { DavPropertyName.DISPLAYNAME, DavPropertyName.RESOURCETYPE,
+            DavPropertyName.ISCOLLECTION, DavPropertyName.SUPPORTEDLOCK, DavPropertyName.GETCONTENTLENGTH,
+            DavPropertyName.GETLASTMODIFIED, DavPropertyName.CREATIONDATE, DavPropertyName.GETETAG,
+            DavPropertyName.GETCONTENTTYPE, DavPropertyName.LOCKDISCOVERY, DavPropertyName.GETCONTENTLANGUAGE };
+
+    private final DavProperty<?>[] slots = new DavProperty<?>[NAMES.length];
+    private DavPropertySet others;
+
+    /**
+     * Return shared property of the content type.
+     */
+    public static DavProperty<String> getContentType(String contentType) {
+        DavProperty<String> property = CONTENT_TYPES.get(contentType);
+        if (property == null) {
+            property = new DefaultDavProperty<>(DavPropertyName.GETCONTENTTYPE, contentType);
+            if (CONTENT_TYPES.size() < MAX_CONTENT_TYPES) {
+                DavProperty<String> existing = CONTENT_TYPES.putIfAbsent(contentType, property);
+                if (existing != null) {
+                    property = existing;
+                }
+            }
+        }
+        return property;
+    }
+
+    private static int indexOf(DavPropertyName name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i] == name) {
+                return i;
+            }
+        }
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add or replace the property.
+     */
+    public void add(DavProperty<?> property) {
+        int i = indexOf(property.getName());
+        if (i >= 0) {
+            slots[i] = property;
+        } else {
+            if (others == null) {
+                others = new DavPropertySet();
+            }
+            others.add(property);
+        }
+    }
+
+    /**
+     * Return the property or <code>null</code> if it is not set.
+     */
+    public DavProperty<?> get(DavPropertyName name) {
+        int i = indexOf(name);
+        if (i >= 0) {
+            return slots[i];
+        }
+        return others != null ? others.get(name) : null;
+    }
+
+    public boolean contains(DavPropertyName name) {
+        return get(name) != null;
+    }
+
+    public DavPropertyName[] getPropertyNames() {
+        DavPropertyName[] otherNames = others != null ? others.getPropertyNames() : new DavPropertyName[0];
+        int count = 0;
+        for (DavProperty<?> slot : slots) {
+            if (slot != null) {
+                count++;
+            }
+        }
+        DavPropertyName[] names = new DavPropertyName[count + otherNames.length];
+        int n = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                names[n++] = NAMES[i];
+            }
+        }
+        System.arraycopy(otherNames, 0, names, n, otherNames.length);
+        return names;
+    }
+
+    private static final class SharedResourceType extends ResourceType {
+
+        SharedResourceType(int resourceType) {
+            super(resourceType);
+        }
+
+        @Override
+        public int[] getResourceTypes() {
+            return super.getResourceTypes().clone();
+        }
+    }
+
+    private static final class SharedSupportedLock extends SupportedLock {
+
+        private final boolean initialized;
+
+        SharedSupportedLock(Type type, Scope scope) {
+            super.addEntry(type, scope);
+            this.initialized = true;
+        }
+
+        @Override
+        public void addEntry(Type type, Scope scope) {
+            if (initialized) {
+                throw new UnsupportedOperationException("Shared supported lock can not be modified");
+            }
+            super.addEntry(type, scope);
+        }
+
+        @Override
+        public void addEntry(LockEntry entry) {
+            if (initialized) {
+                throw new UnsupportedOperationException("Shared supported lock can not be modified");
+            }
+            super.addEntry(entry);
+        }
+
+        @Override
+        public Iterator<LockEntry> getSupportedLocks() {
+            return getValue().iterator();
+        }
+
+        @Override
+        public List<LockEntry> getValue() {
+            return Collections.unmodifiableList(super.getValue());
+        }
+    }
+
+    private static final class SharedLockDiscovery extends LockDiscovery {
+
+        @Override
+        public List<ActiveLock> getValue() {
+            return Collections.unmodifiableList(super.getValue());
+        }
+    }
+
+    /**
+     * Return new property set with all properties.
+     */
+    public DavPropertySet toPropertySet() {
+        DavPropertySet set = new DavPropertySet();
+        for (DavProperty<?> slot : slots) {
+            if (slot != null) {
+                set.add(slot);
+            }
+        }
+        if (others != null) {
+            set.addAll(others);
+        }
+        return set;
+    }
+}
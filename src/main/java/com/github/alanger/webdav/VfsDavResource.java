@@ -1,18 +1,39 @@
 package com.github.alanger.webdav;
 
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.vfs2.AllFileSelector;
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileContent;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.provider.local.LocalFileSystem;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.apache.jackrabbit.webdav.DavCompliance;
 import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.DavException;
@@ -31,14 +52,13 @@ import org.apache.jackrabbit.webdav.lock.LockDiscovery;
 import org.apache.jackrabbit.webdav.lock.LockInfo;
 import org.apache.jackrabbit.webdav.lock.LockManager;
 import org.apache.jackrabbit.webdav.lock.Scope;
-import org.apache.jackrabbit.webdav.lock.SupportedLock;
 import org.apache.jackrabbit.webdav.lock.Type;
 import org.apache.jackrabbit.webdav.property.DavProperty;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
 import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
 import org.apache.jackrabbit.webdav.property.PropEntry;
-import org.apache.jackrabbit.webdav.property.ResourceType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,18 +76,56 @@ public class VfsDavResource implements DavResource {
 
     public static final String UTF_8 = "UTF-8";
 
+    public static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+    public static final String MULTIPART_BYTERANGES = "multipart/byteranges";
+
+    /**
+     * Suffix of temporary files of uploads in progress
+     */
+    public static final String UPLOAD_SUFFIX = ".upload";
+
     private DavResourceFactory factory;
     private LockManager lockManager;
     private DavSession session;
     private DavResourceLocator locator;
     private FileObject fileObject = null;
 
-    protected DavPropertySet properties;
+    /**
+     * Properties which require the file status
+     */
+    protected static final Set<DavPropertyName> STAT_PROPERTIES = new HashSet<>(
+            Arrays.asList(DavPropertyName.GETCONTENTLENGTH, DavPropertyName.GETLASTMODIFIED,
+                    DavPropertyName.CREATIONDATE, DavPropertyName.GETETAG));
+
+    /**
+     * Properties known without access to the file system
+     */
+    protected static final Set<DavPropertyName> BASIC_PROPERTIES = new HashSet<>(
+            Arrays.asList(DavPropertyName.DISPLAYNAME, DavPropertyName.RESOURCETYPE, DavPropertyName.ISCOLLECTION,
+                    DavPropertyName.SUPPORTEDLOCK));
+
+    /**
+     * Properties of the file status, read for listings of the metadata cache
+     */
+    protected static final DavPropertyNameSet STAT_NAMES = new DavPropertyNameSet();
+
+    static {
+        STAT_NAMES.add(DavPropertyName.GETLASTMODIFIED);
+    }
+
+    private ResourceProperties properties;
     protected boolean propsInitialized = false;
+    private boolean basicInitialized = false;
+    private boolean statInitialized = false;
+    private boolean statKnown = false;
+    private boolean typeInitialized = false;
+    private DavPropertyNameSet requestedProperties = null;
     private boolean isCollection = false;
 
     private long modificationTime = DavConstants.UNDEFINED_TIME;
     private long contentLength = IOUtil.UNDEFINED_LENGTH;
+    private String etag = null;
 
     public VfsDavResource(DavResourceLocator locator, DavResourceFactory factory, DavSession session,
             boolean isCollection) throws DavException {
@@ -75,6 +133,27 @@ public class VfsDavResource implements DavResource {
         this.isCollection = isCollection;
     }
 
+    /**
+     * Create resource of a listed child with the file type known from the
+     * listing, the file system is not accessed.
+     */
+    public VfsDavResource(DavResourceLocator locator, DavResourceFactory factory, DavSession session,
+            FileObject fileObject, FileType fileType) throws DavException {
+        if (locator == null || session == null) {
+            throw new IllegalArgumentException("Locator or session is null");
+        }
+        if (locator.getResourcePath() == null || fileObject == null
+                || !fileType.hasContent() && !fileType.hasChildren()) {
+            throw new DavException(DavServletResponse.SC_NOT_FOUND);
+        }
+        this.session = session;
+        this.factory = factory;
+        this.locator = locator;
+        this.fileObject = fileObject;
+        this.properties = new ResourceProperties();
+        this.isCollection = fileType.hasChildren();
+    }
+
     public VfsDavResource(DavResourceLocator locator, DavResourceFactory factory, DavSession session,
             FileObject fileObject) throws DavException {
         if (locator == null || session == null) {
@@ -88,7 +167,7 @@ public class VfsDavResource implements DavResource {
         if (locator.getResourcePath() != null) {
             if (fileObject != null) {
                 this.fileObject = fileObject;
-                this.properties = new DavPropertySet();
+                this.properties = new ResourceProperties();
                 // define what is a collection in webdav
                 try {
                     this.isCollection = fileObject.isFolder();
@@ -147,47 +226,459 @@ public class VfsDavResource implements DavResource {
 
     @Override
     public long getModificationTime() {
-        initProperties();
+        initStatProperties();
         return modificationTime;
     }
 
     public long getContentLength() {
-        initProperties();
+        initStatProperties();
         return contentLength;
     }
 
+    /**
+     * Return entity tag of the resource or <code>null</code> if undefined.
+     */
+    public String getETag() {
+        initStatProperties();
+        return etag;
+    }
+
     @Override
     public void spool(OutputContext outputContext) throws IOException {
         if (exists() && !isCollection() && outputContext != null) {
-            outputContext.setContentLength(getContentLength());
-            try (InputStream is = fileObject.getContent().getInputStream();
-                    OutputStream os = outputContext.getOutputStream();) {
-                if (os != null) { // HEAD method
-                    byte[] buffer = new byte[8 * 1024];
-                    int bytesRead;
-                    while ((bytesRead = is.read(buffer)) != -1) {
-                        os.write(buffer, 0, bytesRead);
+            spoolProperties(outputContext, getContentLength(), getContentType());
+            ETagIndex etagIndex = getETagIndex();
+            boolean digestMissing = etagIndex != null
+                    && etagIndex.get(getResourcePath(), getContentLength(), getModificationTime()) == null;
+            if (!outputContext.hasStream()) { // HEAD method, content is not opened
+                if (digestMissing) {
+                    computeDigest(etagIndex);
+                }
+                return;
+            }
+            OutputStream out = outputContext.getOutputStream();
+            // compute digest during the first full spool
+            ETagIndex.DigestingOutputStream dos = digestMissing ? etagIndex.wrap(out) : null;
+            try (OutputStream os = dos != null ? dos : out;) {
+                spoolContent(os);
+                if (dos != null) {
+                    dos.commit(getResourcePath(), getContentLength(), getModificationTime());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the whole content to the output stream, from one of the caches if
+     * possible. The output stream is not closed.
+     */
+    protected void spoolContent(OutputStream os) throws IOException {
+        MemoryCache memoryCache = getMemoryCache();
+        if (memoryCache != null && memoryCache.isCacheable(getContentLength())) {
+            if (!memoryCache.spool(getResourcePath(), getContentLength(), getModificationTime(), os,
+                    () -> fileObject.getContent().getInputStream(), getBufferPool())) {
+                // no free slot, all entries of the size class are being spooled
+                try (InputStream is = fileObject.getContent().getInputStream()) {
+                    IOUtil.copy(is, os, Long.MAX_VALUE, getBufferPool());
+                }
+            }
+            return;
+        }
+        try (FileChannel channel = openContent()) {
+            if (channel != null) {
+                IOUtil.spool(channel, 0, channel.size(), os, getBufferPool());
+                return;
+            }
+        }
+        ContentCache cache = getContentCache();
+        try (InputStream is = readAhead(fileObject.getContent().getInputStream(), getContentLength())) {
+            if (cache != null && getETag() != null && cache.isCacheable(getContentLength())) {
+                // fill the cache while streaming to the client
+                try (ContentCache.CachingOutputStream cos = cache.begin(getResourcePath(), getETag(), os)) {
+                    IOUtil.copy(is, cos, Long.MAX_VALUE, getBufferPool());
+                    cos.commit(getContentLength());
+                }
+            } else {
+                IOUtil.copy(is, os, Long.MAX_VALUE, getBufferPool());
+            }
+        }
+    }
+
+    /**
+     * Compute digest of the content in background and add it to the index, if
+     * background mode is enabled.
+     */
+    protected void computeDigest(ETagIndex etagIndex) {
+        if (!(factory instanceof VfsDavResourceFactory) || !((VfsDavResourceFactory) factory).isETagBackground()) {
+            return;
+        }
+        ExecutorService executor = ((VfsDavResourceFactory) factory).getExecutorService();
+        String path = getResourcePath();
+        long size = getContentLength();
+        long modTime = getModificationTime();
+        if (executor == null || !etagIndex.startComputing(path)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try (InputStream is = fileObject.getContent().getInputStream()) {
+                    String digest = ETagIndex.digest(is, size, getBufferPool());
+                    if (digest != null) {
+                        etagIndex.put(path, size, modTime, digest);
                     }
+                } catch (IOException | RuntimeException e) {
+                    log.debug("Failed to compute digest of '{}'", path, e);
+                } finally {
+                    etagIndex.finishComputing(path);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            etagIndex.finishComputing(path);
+        }
+    }
+
+    /**
+     * Return index of content digests or <code>null</code> if strong entity
+     * tags are disabled.
+     */
+    protected ETagIndex getETagIndex() {
+        return factory instanceof VfsDavResourceFactory ? ((VfsDavResourceFactory) factory).getETagIndex() : null;
+    }
+
+    protected MimeTypes getMimeTypes() {
+        return factory instanceof VfsDavResourceFactory ? ((VfsDavResourceFactory) factory).getMimeTypes() : null;
+    }
+
+    /**
+     * Set response headers from the cached properties, content of the resource
+     * is not accessed.
+     */
+    protected void spoolProperties(OutputContext outputContext, long contentLength, String contentType) {
+        outputContext.setContentLength(contentLength);
+        outputContext.setContentType(contentType);
+        outputContext.setModificationTime(getModificationTime());
+        outputContext.setETag(getETag());
+        outputContext.setProperty(HEADER_ACCEPT_RANGES, ByteRange.BYTES_UNIT);
+    }
+
+    /**
+     * Spool part of the content, see RFC 7233. Status and
+     * <code>Content-Range</code> header must be set by the caller.
+     */
+    public void spool(OutputContext outputContext, ByteRange range) throws IOException {
+        if (exists() && !isCollection() && outputContext != null) {
+            spoolProperties(outputContext, range.getLength(), getContentType());
+            ETagIndex etagIndex = getETagIndex();
+            if (etagIndex != null
+                    && etagIndex.get(getResourcePath(), getContentLength(), getModificationTime()) == null) {
+                computeDigest(etagIndex);
+            }
+            OutputStream os = outputContext.getOutputStream();
+            if (os != null) { // HEAD method
+                FileChannel channel = openContent();
+                if (channel != null) {
+                    try {
+                        IOUtil.spool(channel, range.getStart(), range.getLength(), os, getBufferPool());
+                    } finally {
+                        channel.close();
+                    }
+                } else if (getBlockCache() != null) {
+                    getBlockCache().spool(getResourcePath(), getETag(), getContentLength(), range.getStart(),
+                            range.getLength(), os, this::getInputStream, getBufferPool());
+                } else {
+                    try (InputStream is = readAhead(getInputStream(range.getStart()), range.getLength())) {
+                        IOUtil.copy(is, os, range.getLength(), getBufferPool());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Spool several parts of the content as <code>multipart/byteranges</code>,
+     * see RFC 7233. The ranges must be disjoint and sorted in file order (see
+     * {@link ByteRange#merge(List)}), so the content is read in a single
+     * forward pass. Status must be set by the caller.
+     */
+    public void spool(OutputContext outputContext, List<ByteRange> ranges, String boundary) throws IOException {
+        if (exists() && !isCollection() && outputContext != null && !ranges.isEmpty()) {
+            long length = getContentLength();
+            String contentType = getContentType();
+
+            List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+            long bodyLength = 0;
+            for (ByteRange range : ranges) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("\r\n--").append(boundary).append("\r\n");
+                if (contentType != null) {
+                    sb.append("Content-Type: ").append(contentType).append("\r\n");
+                }
+                sb.append("Content-Range: ").append(range.toContentRange(length)).append("\r\n\r\n");
+                byte[] header = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+                partHeaders.add(header);
+                bodyLength += header.length + range.getLength();
+            }
+            byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            bodyLength += trailer.length;
+
+            spoolProperties(outputContext, bodyLength, MULTIPART_BYTERANGES + "; boundary=" + boundary);
+            OutputStream os = outputContext.getOutputStream();
+            if (os != null) { // HEAD method
+                FileChannel channel = openContent();
+                if (channel != null) {
+                    try {
+                        for (int i = 0; i < ranges.size(); i++) {
+                            ByteRange range = ranges.get(i);
+                            os.write(partHeaders.get(i));
+                            long copied = IOUtil.spool(channel, range.getStart(), range.getLength(), os,
+                                    getBufferPool());
+                            if (copied < range.getLength()) {
+                                throw new EOFException("Unexpected end of content at '" + getResourcePath() + "'");
+                            }
+                        }
+                    } finally {
+                        channel.close();
+                    }
+                    os.write(trailer);
+                    return;
+                }
+                BlockCache blockCache = getBlockCache();
+                if (blockCache != null) {
+                    for (int i = 0; i < ranges.size(); i++) {
+                        ByteRange range = ranges.get(i);
+                        os.write(partHeaders.get(i));
+                        blockCache.spool(getResourcePath(), getETag(), length, range.getStart(), range.getLength(),
+                                os, this::getInputStream, getBufferPool());
+                    }
+                    os.write(trailer);
+                    return;
+                }
+                long position = ranges.get(0).getStart();
+                long limit = ranges.get(ranges.size() - 1).getEnd() + 1 - position;
+                try (InputStream is = readAhead(getInputStream(position), limit)) {
+                    for (int i = 0; i < ranges.size(); i++) {
+                        ByteRange range = ranges.get(i);
+                        os.write(partHeaders.get(i));
+                        IOUtil.skipFully(is, range.getStart() - position);
+                        if (IOUtil.copy(is, os, range.getLength(), getBufferPool()) < range.getLength()) {
+                            throw new EOFException("Unexpected end of content at '" + getResourcePath() + "'");
+                        }
+                        position = range.getEnd() + 1;
+                    }
+                }
+                os.write(trailer);
+            }
+        }
+    }
+
+    /**
+     * Return pool of buffers of the servlet or for the scheme of the file
+     * system.
+     */
+    protected BufferPool getBufferPool() {
+        if (factory instanceof VfsDavResourceFactory && ((VfsDavResourceFactory) factory).getBufferPool() != null) {
+            return ((VfsDavResourceFactory) factory).getBufferPool();
+        }
+        return BufferPool.forScheme(fileObject != null ? fileObject.getName().getScheme() : null);
+    }
+
+    /**
+     * Wrap the content stream to read ahead at most <code>limit</code> bytes in
+     * background, if read-ahead is enabled for the file system and the content
+     * does not fit into a single buffer.
+     */
+    protected InputStream readAhead(InputStream is, long limit) {
+        if (factory instanceof VfsDavResourceFactory) {
+            VfsDavResourceFactory vfsFactory = (VfsDavResourceFactory) factory;
+            BufferPool pool = getBufferPool();
+            if (vfsFactory.getReadAheadDepth() > 0 && vfsFactory.getExecutorService() != null
+                    && (limit < 0 || limit > pool.getBufferSize())) {
+                try {
+                    return new ReadAheadInputStream(is, limit < 0 ? Long.MAX_VALUE : limit,
+                            vfsFactory.getReadAheadDepth(), pool, vfsFactory.getExecutorService());
+                } catch (RejectedExecutionException e) {
+                    log.debug("Read-ahead rejected at '{}'", getResourcePath(), e);
                 }
             }
         }
+        return is;
+    }
+
+    /**
+     * Return path of the file if it belongs to the local file system, otherwise
+     * <code>null</code>. Local files are spooled through {@link FileChannel}.
+     */
+    protected Path getLocalPath() {
+        if (fileObject != null && fileObject.getFileSystem() instanceof LocalFileSystem) {
+            try {
+                return fileObject.getPath();
+            } catch (RuntimeException e) {
+                log.debug("Failed to get local path of '{}'", getResourcePath(), e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open a local copy of the content, the local file itself or an entry of
+     * the {@link ContentCache} with the current entity tag, the caller must
+     * close the channel.
+     *
+     * @return <code>null</code> if there is no local copy
+     */
+    protected FileChannel openContent() throws IOException {
+        Path localPath = getLocalPath();
+        if (localPath != null) {
+            return FileChannel.open(localPath, StandardOpenOption.READ);
+        }
+        ContentCache cache = getContentCache();
+        return cache != null ? cache.open(getResourcePath(), getETag()) : null;
+    }
+
+    /**
+     * Return cache of remote contents or <code>null</code> if it is disabled.
+     */
+    protected ContentCache getContentCache() {
+        if (factory instanceof VfsDavResourceFactory && getLocalPath() == null) {
+            return ((VfsDavResourceFactory) factory).getContentCache();
+        }
+        return null;
+    }
+
+    /**
+     * Return cache of small remote files or <code>null</code> if it is disabled.
+     */
+    protected MemoryCache getMemoryCache() {
+        if (factory instanceof VfsDavResourceFactory && getLocalPath() == null) {
+            return ((VfsDavResourceFactory) factory).getMemoryCache();
+        }
+        return null;
+    }
+
+    /**
+     * Return cache of remote content blocks or <code>null</code> if it is
+     * disabled or the resource has no entity tag.
+     */
+    protected BlockCache getBlockCache() {
+        if (factory instanceof VfsDavResourceFactory && getLocalPath() == null && getETag() != null) {
+            return ((VfsDavResourceFactory) factory).getBlockCache();
+        }
+        return null;
+    }
+
+    /**
+     * Remove cached contents, blocks, small files, digests, listings and
+     * missing paths of the path and all paths below it, and the listing of its
+     * parent.
+     */
+    protected void invalidateContentCache(String path) {
+        ContentCache cache = getContentCache();
+        if (cache != null && path != null) {
+            cache.invalidate(path);
+        }
+        if (factory instanceof VfsDavResourceFactory && path != null) {
+            BlockCache blockCache = ((VfsDavResourceFactory) factory).getBlockCache();
+            if (blockCache != null) {
+                blockCache.invalidate(path);
+            }
+            MemoryCache memoryCache = ((VfsDavResourceFactory) factory).getMemoryCache();
+            if (memoryCache != null) {
+                memoryCache.invalidate(path);
+            }
+            ETagIndex etagIndex = ((VfsDavResourceFactory) factory).getETagIndex();
+            if (etagIndex != null) {
+                etagIndex.invalidate(path);
+            }
+            MetadataCache metadataCache = ((VfsDavResourceFactory) factory).getMetadataCache();
+            if (metadataCache != null) {
+                metadataCache.invalidate(path);
+            }
+            NegativeCache negativeCache = ((VfsDavResourceFactory) factory).getNegativeCache();
+            if (negativeCache != null) {
+                negativeCache.invalidate(path);
+            }
+        }
+    }
+
+    /**
+     * Open content stream at the given position. Seek through random access
+     * content if the file system supports it, otherwise skip the leading bytes.
+     */
+    protected InputStream getInputStream(long position) throws IOException {
+        FileContent content = fileObject.getContent();
+        if (position > 0 && fileObject.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+            RandomAccessContent rac = content.getRandomAccessContent(RandomAccessMode.READ);
+            try {
+                rac.seek(position);
+                return new FilterInputStream(rac.getInputStream()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            rac.close();
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                rac.close();
+                throw e;
+            }
+        }
+        InputStream is = content.getInputStream();
+        try {
+            IOUtil.skipFully(is, position);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+        return is;
+    }
+
+    /**
+     * Return content type of the resource or <code>null</code> if undefined.
+     */
+    public String getContentType() {
+        DavProperty<?> prop = getProperty(DavPropertyName.GETCONTENTTYPE);
+        return prop != null && prop.getValue() != null ? prop.getValue().toString() : null;
     }
 
     @Override
     public DavProperty<?> getProperty(DavPropertyName name) {
-        initProperties();
+        initProperties(name);
         return properties.get(name);
     }
 
+    /**
+     * Return properties of the resource, live properties are filled on demand
+     * by {@link #getProperty(DavPropertyName)} and {@link #getProperties()}.
+     */
+    protected ResourceProperties getResourceProperties() {
+        return properties;
+    }
+
     @Override
     public DavPropertySet getProperties() {
         initProperties();
-        return properties;
+        return properties != null ? properties.toPropertySet() : null;
     }
 
     @Override
     public DavPropertyName[] getPropertyNames() {
-        return getProperties().getPropertyNames();
+        initProperties();
+        return properties != null ? properties.getPropertyNames() : new DavPropertyName[0];
+    }
+
+    /**
+     * Set properties requested by <code>PROPFIND</code>, used to initialize only
+     * these properties of the members. <code>null</code> means all properties.
+     */
+    public void setRequestedProperties(DavPropertyNameSet requestedProperties) {
+        this.requestedProperties = requestedProperties;
+    }
+
+    public DavPropertyNameSet getRequestedProperties() {
+        return requestedProperties;
     }
 
     /**
@@ -201,19 +692,83 @@ public class VfsDavResource implements DavResource {
         if (log.isTraceEnabled())
             log.trace("# initProperties: {}, exist: {}, isCollection: {}", getResourcePath(), exists(), isCollection());
 
-        PropertyExportCtx context = new PropertyExportCtx();
+        initBasicProperties();
+        initStatProperties();
+        initContentTypeProperties();
+        initLockProperties();
 
-        String mimeType = "application/octet-stream";
+        propsInitialized = true;
+    }
 
-        if (exists()) {
+    /**
+     * Fill the given properties only, <code>null</code> means all properties.
+     */
+    protected void initProperties(DavPropertyNameSet names) {
+        if (names == null) {
+            initProperties();
+            return;
+        }
+        for (DavPropertyName name : names) {
+            initProperties(name);
+        }
+    }
+
+    /**
+     * Fill the group of properties which contains the given property, the file
+     * system is accessed only by file status and content type properties.
+     */
+    protected void initProperties(DavPropertyName name) {
+        if (!exists() || propsInitialized) {
+            return;
+        }
+        if (STAT_PROPERTIES.contains(name)) {
+            initStatProperties();
+        } else if (DavPropertyName.GETCONTENTTYPE.equals(name)) {
+            initContentTypeProperties();
+        } else if (DavPropertyName.LOCKDISCOVERY.equals(name)) {
+            initLockProperties();
+        } else if (BASIC_PROPERTIES.contains(name)) {
+            initBasicProperties();
+        }
+    }
+
+    /**
+     * Fill properties known without access to the file system.
+     */
+    protected void initBasicProperties() {
+        if (basicInitialized) {
+            return;
+        }
+        // set (or reset) fundamental properties
+        if (getDisplayName() != null) {
+            properties.add(new DefaultDavProperty<>(DavPropertyName.DISPLAYNAME, getDisplayName()));
+        }
+        if (isCollection()) {
+            properties.add(ResourceProperties.RESOURCETYPE_COLLECTION);
+            properties.add(ResourceProperties.ISCOLLECTION_TRUE);
+        } else {
+            properties.add(ResourceProperties.RESOURCETYPE_DEFAULT);
+            properties.add(ResourceProperties.ISCOLLECTION_FALSE);
+        }
+
+        /* lock support information: all locks are lockable. */
+        properties.add(ResourceProperties.SUPPORTEDLOCK);
+
+        basicInitialized = true;
+    }
+
+    /**
+     * Fill size, time and entity tag properties from the file status.
+     */
+    protected void initStatProperties() {
+        if (statInitialized || !exists()) {
+            return;
+        }
+
+        if (!statKnown) {
             try (FileContent content = fileObject.getContent()) {
                 if (!isCollection()) {
                     contentLength = content.getSize();
-                    // Set "content.types.user.table" properties,
-                    // $JRE_HOME/lib/content-types.properties
-                    mimeType = content.getContentInfo().getContentType();
-                } else {
-                    mimeType = "inode/directory";
                 }
                 modificationTime = content.getLastModifiedTime();
             } catch (FileSystemException e) {
@@ -222,42 +777,77 @@ public class VfsDavResource implements DavResource {
             }
         }
 
+        PropertyExportCtx context = new PropertyExportCtx();
         context.setModificationTime(modificationTime);
         context.setCreationTime(modificationTime);
         context.setContentLength(contentLength);
-        context.setContentType(mimeType, /* UTF_8 */ null);
         if (contentLength > IOUtil.UNDEFINED_LENGTH && modificationTime > IOUtil.UNDEFINED_TIME) {
-            String etag = "\"" + contentLength + "-" + modificationTime + "\"";
+            ETagIndex etagIndex = getETagIndex();
+            String digest = etagIndex != null && !isCollection()
+                    ? etagIndex.get(getResourcePath(), contentLength, modificationTime)
+                    : null;
+            etag = "\"" + (digest != null ? digest : contentLength + "-" + modificationTime) + "\"";
             context.setETag(etag);
         }
 
-        // set (or reset) fundamental properties
-        if (getDisplayName() != null) {
-            properties.add(new DefaultDavProperty<>(DavPropertyName.DISPLAYNAME, getDisplayName()));
+        statInitialized = true;
+    }
+
+    /**
+     * Set size and modification time known from a cached listing, the file
+     * status is not read then.
+     */
+    protected void setStat(long contentLength, long modificationTime) {
+        if (!statInitialized) {
+            this.contentLength = isCollection() ? IOUtil.UNDEFINED_LENGTH : contentLength;
+            this.modificationTime = modificationTime;
+            this.statKnown = true;
+        }
+    }
+
+    /**
+     * Fill content type property.
+     */
+    protected void initContentTypeProperties() {
+        if (typeInitialized || !exists()) {
+            return;
         }
+
+        String mimeType = "application/octet-stream";
+        MimeTypes mimeTypes = getMimeTypes();
         if (isCollection()) {
-            properties.add(new ResourceType(ResourceType.COLLECTION));
-            // Windows XP support
-            properties.add(new DefaultDavProperty<>(DavPropertyName.ISCOLLECTION, "1"));
+            mimeType = "inode/directory";
+        } else if (mimeTypes != null) {
+            mimeType = mimeTypes.getContentType(getDisplayName());
         } else {
-            properties.add(new ResourceType(ResourceType.DEFAULT_RESOURCE));
-            // Windows XP support
-            properties.add(new DefaultDavProperty<>(DavPropertyName.ISCOLLECTION, "0"));
+            try (FileContent content = fileObject.getContent()) {
+                // Set "content.types.user.table" properties,
+                // $JRE_HOME/lib/content-types.properties
+                mimeType = content.getContentInfo().getContentType();
+            } catch (FileSystemException e) {
+                final String msg = "Failed while initialize content type at '" + getResourcePath() + "'";
+                log.debug(msg, e);
+            }
+        }
+        String contentType = IOUtil.buildContentType(mimeType, /* UTF_8 */ null);
+        if (contentType != null) {
+            properties.add(ResourceProperties.getContentType(contentType));
         }
 
+        typeInitialized = true;
+    }
+
+    /**
+     * Fill lock discovery property.
+     */
+    protected void initLockProperties() {
         /*
          * set current lock information. If no lock is set to this resource, an empty
          * lock discovery will be returned in
          * the response.
          */
-        properties.add(new LockDiscovery(getLock(Type.WRITE, Scope.EXCLUSIVE)));
-
-        /* lock support information: all locks are lockable. */
-        SupportedLock supportedLock = new SupportedLock();
-        supportedLock.addEntry(Type.WRITE, Scope.EXCLUSIVE);
-        properties.add(supportedLock);
-
-        propsInitialized = true;
+        ActiveLock lock = getLock(Type.WRITE, Scope.EXCLUSIVE);
+        properties.add(lock != null ? new LockDiscovery(lock) : ResourceProperties.LOCKDISCOVERY_EMPTY);
     }
 
     /**
@@ -265,9 +855,8 @@ public class VfsDavResource implements DavResource {
      */
     protected class PropertyExportCtx {
         private PropertyExportCtx() {
-            // set defaults:
-            setCreationTime(IOUtil.UNDEFINED_TIME);
-            setModificationTime(IOUtil.UNDEFINED_TIME);
+            // times are set by the caller, setModificationTime changes the time
+            // of the resource
         }
 
         public void setContentLanguage(String contentLanguage) {
@@ -296,7 +885,7 @@ public class VfsDavResource implements DavResource {
 
         public void setModificationTime(long modTime) {
             if (modTime <= IOUtil.UNDEFINED_TIME) {
-                modificationTime = new Date().getTime();
+                modificationTime = System.currentTimeMillis();
             } else {
                 modificationTime = modTime;
             }
@@ -416,23 +1005,22 @@ public class VfsDavResource implements DavResource {
         ArrayList<DavResource> list = new ArrayList<>();
         if (exists() && isCollection()) {
             try {
-                String parentPath = getResourcePath();
-                if (!parentPath.endsWith("/")) {
-                    parentPath = parentPath + "/";
-                }
-
-                FileObject[] children = fileObject.getChildren();
-                for (FileObject n : children) {
-                    String path = parentPath + n.getName().getBaseName();
-
-                    DavResourceLocator resourceLocator = locator.getFactory().createResourceLocator(locator.getPrefix(),
-                            locator.getWorkspacePath(), path, false);
-                    DavResource childRes = factory.createResource(resourceLocator, session);
-
-                    if (childRes != null && childRes.exists())
-                        list.add(childRes);
+                Collection<MetadataCache.Entry> entries = getCachedChildren();
+                if (entries != null) {
+                    for (MetadataCache.Entry entry : entries) {
+                        DavResource childRes = createMember(entry);
+                        if (childRes != null)
+                            list.add(childRes);
+                    }
+                } else {
+                    for (FileObject n : listChildren()) {
+                        DavResource childRes = createMember(n);
+                        if (childRes != null)
+                            list.add(childRes);
+                    }
+                    initMemberProperties(list);
                 }
-            } catch (FileSystemException e) {
+            } catch (IOException e) {
                 // should not occur
                 log.debug("getMembers FS error", e);
             } catch (DavException e) {
@@ -443,6 +1031,196 @@ public class VfsDavResource implements DavResource {
         return new DavResourceIteratorImpl(list);
     }
 
+    /**
+     * Return children of the collection without temporary files of uploads,
+     * empty array if the resource is not a collection. Expired temporary files
+     * are deleted.
+     */
+    protected FileObject[] listChildren() throws FileSystemException {
+        if (!exists() || !isCollection()) {
+            return new FileObject[0];
+        }
+        FileObject[] children = fileObject.getChildren();
+        List<FileObject> listed = null;
+        for (int i = 0; i < children.length; i++) {
+            if (isUploadName(children[i].getName().getBaseName())) {
+                try {
+                    deleteExpiredUpload(children[i]);
+                } catch (FileSystemException e) {
+                    log.debug("Failed to delete expired upload '{}'", children[i], e);
+                }
+                if (listed == null) {
+                    listed = new ArrayList<>(Arrays.asList(children).subList(0, i));
+                }
+            } else if (listed != null) {
+                listed.add(children[i]);
+            }
+        }
+        return listed != null ? listed.toArray(new FileObject[0]) : children;
+    }
+
+    /**
+     * Return true if the name is a hidden temporary file of an upload,
+     * <code>.&lt;name&gt;[.&lt;random&gt;].upload</code>.
+     */
+    public static boolean isUploadName(String name) {
+        return name.length() > UPLOAD_SUFFIX.length() + 1 && name.charAt(0) == '.' && name.endsWith(UPLOAD_SUFFIX);
+    }
+
+    /**
+     * Return children of the collection from the metadata cache, loaded if
+     * the listing is missing or expired.
+     *
+     * @return children or <code>null</code> if the cache is disabled
+     */
+    protected Collection<MetadataCache.Entry> getCachedChildren() throws IOException {
+        MetadataCache cache = getMetadataCache();
+        if (cache == null || !exists() || !isCollection()) {
+            return null;
+        }
+        return cache.getListing(getCachePath(), this::loadChildren);
+    }
+
+    /**
+     * List children of the collection with their type, size and modification
+     * time, status of the children is read in parallel.
+     */
+    protected List<MetadataCache.Entry> loadChildren() throws IOException {
+        List<DavResource> members = new ArrayList<>();
+        for (FileObject child : listChildren()) {
+            try {
+                DavResource member = createMember(child);
+                if (member instanceof VfsDavResource)
+                    members.add(member);
+            } catch (DavException e) {
+                log.debug("Failed to create member '{}'", child, e);
+            }
+        }
+        initMemberProperties(members, STAT_NAMES);
+        List<MetadataCache.Entry> entries = new ArrayList<>(members.size());
+        for (DavResource m : members) {
+            VfsDavResource member = (VfsDavResource) m;
+            entries.add(new MetadataCache.Entry(Text.getName(member.getResourcePath()), member.fileObject,
+                    member.isCollection() ? FileType.FOLDER : FileType.FILE, member.getContentLength(),
+                    member.getModificationTime()));
+        }
+        return entries;
+    }
+
+    /**
+     * Create member resource of the cached child, the file system is not
+     * accessed.
+     *
+     * @return member or <code>null</code> if the child is not a file or folder
+     */
+    protected DavResource createMember(MetadataCache.Entry entry) throws DavException {
+        DavResourceLocator resourceLocator = getMemberLocator(entry.getName());
+        DavResource childRes = factory instanceof VfsDavResourceFactory
+                ? ((VfsDavResourceFactory) factory).createMemberResource(resourceLocator, session, entry)
+                : factory.createResource(resourceLocator, session);
+        if (childRes instanceof VfsDavResource)
+            ((VfsDavResource) childRes).setRequestedProperties(requestedProperties);
+        return childRes != null && childRes.exists() ? childRes : null;
+    }
+
+    private DavResourceLocator getMemberLocator(String name) {
+        String parentPath = getResourcePath();
+        if (!parentPath.endsWith("/")) {
+            parentPath = parentPath + "/";
+        }
+        return locator.getFactory().createResourceLocator(locator.getPrefix(), locator.getWorkspacePath(),
+                parentPath + name, false);
+    }
+
+    /**
+     * Return path of the resource in the metadata cache.
+     */
+    protected String getCachePath() {
+        String path = getResourcePath();
+        return path == null || path.isEmpty() ? "/" : path;
+    }
+
+    protected MetadataCache getMetadataCache() {
+        return factory instanceof VfsDavResourceFactory ? ((VfsDavResourceFactory) factory).getMetadataCache()
+                : null;
+    }
+
+    /**
+     * Create member resource of the listed child, requested properties are
+     * passed to the member.
+     *
+     * @return member or <code>null</code> if the child does not exist
+     */
+    protected DavResource createMember(FileObject child) throws DavException {
+        DavResourceLocator resourceLocator = getMemberLocator(child.getName().getBaseName());
+        DavResource childRes;
+        if (factory instanceof VfsDavResourceFactory) {
+            // wrap the listed child, without resolving it again
+            childRes = ((VfsDavResourceFactory) factory).createMemberResource(resourceLocator, session, child);
+        } else {
+            childRes = factory.createResource(resourceLocator, session);
+        }
+
+        if (childRes instanceof VfsDavResource)
+            ((VfsDavResource) childRes).setRequestedProperties(requestedProperties);
+        return childRes != null && childRes.exists() ? childRes : null;
+    }
+
+    /**
+     * Initialize properties of the members in parallel, at most
+     * {@link VfsDavResourceFactory#getMemberParallelism()} at once. The calling
+     * thread takes part and returns when all members are initialized, order of
+     * the members is not changed.
+     */
+    protected void initMemberProperties(List<DavResource> members) {
+        initMemberProperties(members, requestedProperties);
+    }
+
+    /**
+     * Initialize the given properties of the members in parallel,
+     * <code>null</code> means all properties.
+     */
+    protected void initMemberProperties(List<DavResource> members, DavPropertyNameSet names) {
+        if (!(factory instanceof VfsDavResourceFactory) || members.size() < 2) {
+            return;
+        }
+        VfsDavResourceFactory vfsFactory = (VfsDavResourceFactory) factory;
+        int parallelism = Math.min(vfsFactory.getMemberParallelism(), members.size());
+        ExecutorService executor = vfsFactory.getExecutorService();
+        if (parallelism <= 1 || executor == null) {
+            return; // properties are initialized on demand
+        }
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < members.size()) {
+                DavResource member = members.get(i);
+                if (member instanceof VfsDavResource) {
+                    ((VfsDavResource) member).initProperties(names);
+                }
+            }
+        };
+        List<Future<?>> futures = new ArrayList<>(parallelism - 1);
+        try {
+            for (int i = 1; i < parallelism; i++) {
+                futures.add(executor.submit(worker));
+            }
+        } catch (RejectedExecutionException e) {
+            log.debug("Parallel initialization rejected at '{}'", getResourcePath(), e);
+        }
+        worker.run();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.debug("Failed to initialize member properties at '{}'", getResourcePath(), e.getCause());
+            }
+        }
+    }
+
     @Override
     public void addMember(DavResource member, InputContext inputContext) throws DavException {
         if (log.isTraceEnabled())
@@ -454,26 +1232,249 @@ public class VfsDavResource implements DavResource {
         if (isLocked(this) || isLocked(member)) {
             throw new DavException(DavServletResponse.SC_LOCKED);
         }
+        invalidateContentCache(member.getResourcePath());
         try {
             String memberName = Text.getName(member.getLocator().getRepositoryPath());
             FileObject child = fileObject.resolveFile(memberName);
             if (member.isCollection()) {
                 child.createFolder();
+            } else if (isAtomicPut()) {
+                writeAtomic(child, inputContext);
             } else {
+                // output stream of local files does not truncate existing content
+                if (child.exists()) {
+                    child.delete();
+                }
                 child.createFile();
                 try (InputStream is = inputContext.getInputStream();
                         OutputStream os = child.getContent().getOutputStream();) {
-                    byte[] buffer = new byte[8 * 1024];
-                    int bytesRead;
-                    while ((bytesRead = is.read(buffer)) != -1) {
-                        os.write(buffer, 0, bytesRead);
-                    }
+                    IOUtil.copy(is, os, Long.MAX_VALUE, getBufferPool());
                 }
             }
         } catch (IOException e) {
             log.error("Error while importing resource: {}", e.toString());
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        } finally {
+            // listings and misses may have been cached while changing
+            invalidateContentCache(member.getResourcePath());
+        }
+    }
+
+    /**
+     * Return true if uploads are written to a temporary file renamed to the
+     * target on success.
+     */
+    protected boolean isAtomicPut() {
+        return !(factory instanceof VfsDavResourceFactory) || ((VfsDavResourceFactory) factory).isAtomicPut();
+    }
+
+    /**
+     * Write the content to a hidden sibling of the target and rename it to the
+     * target when the content is complete, so readers never see a partial
+     * file. The temporary file is deleted if the upload fails.
+     */
+    protected void writeAtomic(FileObject target, InputContext inputContext) throws IOException {
+        String tempName = "." + target.getName().getBaseName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + UPLOAD_SUFFIX;
+        FileObject temp = target.getParent().resolveFile(tempName);
+        boolean moved = false;
+        try {
+            temp.createFile();
+            try (InputStream is = inputContext.getInputStream();
+                    OutputStream os = temp.getContent().getOutputStream();) {
+                IOUtil.copy(is, os, Long.MAX_VALUE, getBufferPool());
+            }
+            replaceFile(temp, target);
+            moved = true;
+        } finally {
+            if (!moved) {
+                try {
+                    temp.delete();
+                } catch (IOException e) {
+                    log.warn("Failed to delete temporary file '{}': {}", tempName, e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the file to the target replacing an existing target. If the file
+     * system fails to rename over an existing file (e.g. <code>ram</code>), the
+     * content is copied to the target and the file is deleted.
+     */
+    protected static void replaceFile(FileObject file, FileObject target) throws FileSystemException {
+        try {
+            file.moveTo(target);
+        } catch (FileSystemException e) {
+            if (!file.exists()) {
+                throw e;
+            }
+            log.debug("Failed to rename '{}', copying: {}", file.getName().getBaseName(), e.toString());
+            target.copyFrom(file, Selectors.SELECT_SELF);
+            file.delete();
+        }
+    }
+
+    /**
+     * Write part of the member content starting at the first byte of the range,
+     * see {@link #getUploadOffset(DavResource)}. If atomic uploads are enabled,
+     * parts are written to a hidden upload file renamed to the member when the
+     * part ends at the complete length, otherwise the member is updated in
+     * place. Bytes received before a failure are kept, so the upload can be
+     * resumed.
+     *
+     * @param completeLength
+     *            length of the whole content or <code>-1</code> if unknown
+     * @return number of uploaded bytes after writing
+     */
+    public long addMember(DavResource member, InputContext inputContext, ByteRange range, long completeLength)
+            throws DavException {
+        if (log.isTraceEnabled())
+            log.trace("# addMember: {} {}/{}", member.getResourcePath(), range, completeLength);
+
+        if (!exists()) {
+            throw new DavException(DavServletResponse.SC_CONFLICT);
+        }
+        if (isLocked(this) || isLocked(member)) {
+            throw new DavException(DavServletResponse.SC_LOCKED);
+        }
+        VfsDavResourceFactory vfsFactory = factory instanceof VfsDavResourceFactory
+                ? (VfsDavResourceFactory) factory
+                : null;
+        if (vfsFactory != null && !vfsFactory.beginUpload(member.getResourcePath())) {
+            throw new DavException(DavServletResponse.SC_CONFLICT, "Upload of the resource is in progress");
+        }
+        invalidateContentCache(member.getResourcePath());
+        try {
+            FileObject upload = getUploadFile(member);
+            long copied;
+            try (InputStream is = inputContext.getInputStream()) {
+                copied = writeRange(upload, is, range, completeLength);
+            }
+            long offset = upload.getContent().getSize();
+            if (isAtomicPut() && copied == range.getLength() && range.getEnd() + 1 == completeLength) {
+                String memberName = Text.getName(member.getLocator().getRepositoryPath());
+                replaceFile(upload, fileObject.resolveFile(memberName));
+            }
+            return offset;
+        } catch (IOException e) {
+            log.error("Error while importing resource: {}", e.toString());
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        } finally {
+            if (vfsFactory != null) {
+                vfsFactory.endUpload(member.getResourcePath());
+            }
+            invalidateContentCache(member.getResourcePath());
+        }
+    }
+
+    /**
+     * Return number of bytes of the member received by resumable uploads, size
+     * of the upload file if atomic uploads are enabled, otherwise size of the
+     * member.
+     */
+    public long getUploadOffset(DavResource member) throws DavException {
+        if (!exists()) {
+            throw new DavException(DavServletResponse.SC_CONFLICT);
+        }
+        try {
+            FileObject upload = getUploadFile(member);
+            return upload.isFile() ? upload.getContent().getSize() : 0;
+        } catch (IOException e) {
+            log.error("Error while reading upload: {}", e.toString());
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Return file written by resumable uploads of the member, hidden sibling
+     * <code>.&lt;name&gt;.upload</code> if atomic uploads are enabled,
+     * otherwise the member itself. An expired upload file is deleted.
+     */
+    protected FileObject getUploadFile(DavResource member) throws FileSystemException {
+        String memberName = Text.getName(member.getLocator().getRepositoryPath());
+        if (!isAtomicPut()) {
+            return fileObject.resolveFile(memberName);
+        }
+        FileObject upload = fileObject.resolveFile("." + memberName + UPLOAD_SUFFIX);
+        deleteExpiredUpload(upload);
+        return upload;
+    }
+
+    /**
+     * Delete the temporary file of an upload not written for the time to live
+     * of uploads.
+     *
+     * @return true if the file has been deleted
+     * @see VfsDavResourceFactory#getUploadTtl()
+     */
+    protected boolean deleteExpiredUpload(FileObject upload) throws FileSystemException {
+        long ttl = factory instanceof VfsDavResourceFactory ? ((VfsDavResourceFactory) factory).getUploadTtl() : 0;
+        if (ttl <= 0 || !upload.isFile()
+                || System.currentTimeMillis() - upload.getContent().getLastModifiedTime() < ttl) {
+            return false;
+        }
+        log.debug("Delete expired upload '{}'", upload.getName().getBaseName());
+        return upload.delete();
+    }
+
+    /**
+     * Write bytes of the range to the file. Random access content is used if
+     * the file system supports it, otherwise the content is appended at the
+     * end of the file or written from the beginning. Content beyond the
+     * complete length is truncated if possible.
+     *
+     * @return number of written bytes
+     * @throws DavException
+     *             416 if the range starts after the end of the file, 501 if
+     *             the file system cannot write at the position
+     */
+    protected long writeRange(FileObject file, InputStream is, ByteRange range, long completeLength)
+            throws IOException, DavException {
+        long size = file.isFile() ? file.getContent().getSize() : 0;
+        if (range.getStart() > size) {
+            throw new DavException(DavServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+        if (!file.exists()) {
+            file.createFile();
+        }
+        if (file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)) {
+            try (RandomAccessContent rac = file.getContent().getRandomAccessContent(RandomAccessMode.READWRITE)) {
+                rac.seek(range.getStart());
+                long copied = IOUtil.copy(is, new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        rac.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        rac.write(b, off, len);
+                    }
+                }, range.getLength(), getBufferPool());
+                if (completeLength >= 0 && rac.length() > completeLength) {
+                    rac.setLength(completeLength);
+                }
+                return copied;
+            }
+        }
+        if (range.getStart() == size && size > 0
+                && file.getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
+            try (OutputStream os = file.getContent().getOutputStream(true)) {
+                return IOUtil.copy(is, os, range.getLength(), getBufferPool());
+            }
+        }
+        if (range.getStart() == 0) {
+            if (size > 0) {
+                file.delete();
+                file.createFile();
+            }
+            try (OutputStream os = file.getContent().getOutputStream()) {
+                return IOUtil.copy(is, os, range.getLength(), getBufferPool());
+            }
         }
+        throw new DavException(DavServletResponse.SC_NOT_IMPLEMENTED,
+                "Write at position " + range.getStart() + " is not supported by the file system");
     }
 
     @Override
@@ -488,6 +1489,7 @@ public class VfsDavResource implements DavResource {
             throw new DavException(DavServletResponse.SC_LOCKED);
         }
 
+        invalidateContentCache(member.getResourcePath());
         try {
             String memberName = Text.getName(member.getLocator().getRepositoryPath());
             FileObject child = fileObject.getChild(memberName);
@@ -495,6 +1497,8 @@ public class VfsDavResource implements DavResource {
         } catch (IOException e) {
             log.error("Error while remove member: {}", e.toString());
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        } finally {
+            invalidateContentCache(member.getResourcePath());
         }
 
         // make sure, non-jcr locks are removed, once the removal is completed
@@ -524,6 +1528,8 @@ public class VfsDavResource implements DavResource {
         // make sure, that src and destination belong to the same workspace
         checkSameWorkspace(destination.getLocator());
 
+        invalidateContentCache(getResourcePath());
+        invalidateContentCache(destination.getResourcePath());
         try {
             FileObject destRootObject = ((VfsDavResourceFactory) destination.getFactory()).getRootObject();
             FileObject destFile = destRootObject.resolveFile(destination.getLocator().getRepositoryPath());
@@ -531,6 +1537,9 @@ public class VfsDavResource implements DavResource {
         } catch (IOException e) {
             log.error("Error while move resource: {}", e.toString());
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        } finally {
+            invalidateContentCache(getResourcePath());
+            invalidateContentCache(destination.getResourcePath());
         }
     }
 
@@ -550,6 +1559,7 @@ public class VfsDavResource implements DavResource {
         // make sure, that src and destination belong to the same workspace
         checkSameWorkspace(destination.getLocator());
 
+        invalidateContentCache(destination.getResourcePath());
         try {
             FileObject destRootObject = ((VfsDavResourceFactory) destination.getFactory()).getRootObject();
             FileObject destFile = destRootObject.resolveFile(destination.getLocator().getRepositoryPath());
@@ -557,6 +1567,8 @@ public class VfsDavResource implements DavResource {
         } catch (IOException e) {
             log.error("Error while copy resource: {}", e.toString());
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        } finally {
+            invalidateContentCache(destination.getResourcePath());
         }
     }
 
@@ -1,7 +1,14 @@
 package com.github.alanger.webdav;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.cache.OnCallRefreshFileObject;
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavMethods;
 import org.apache.jackrabbit.webdav.DavResource;
@@ -23,11 +30,218 @@ public class VfsDavResourceFactory implements DavResourceFactory {
 
     private final LockManager lockMgr;
     private final FileObject root;
+    private int readAheadDepth = 0;
+    private int memberParallelism = 1;
+    private ExecutorService executorService;
+    private BufferPool bufferPool;
+    private ContentCache contentCache;
+    private BlockCache blockCache;
+    private MemoryCache memoryCache;
+    private ETagIndex etagIndex;
+    private boolean etagBackground = false;
+    private MimeTypes mimeTypes = MimeTypes.getDefault();
+    private MetadataCache metadataCache;
+    private NegativeCache negativeCache;
+    private Pattern probePattern;
+    private boolean atomicPut = true;
+    private long uploadTtl = 0;
+    private final Set<String> uploads = ConcurrentHashMap.newKeySet();
 
     public FileObject getRootObject() {
         return root;
     }
 
+    /**
+     * Return number of chunks read ahead while spooling content, <code>0</code>
+     * if read-ahead is disabled.
+     */
+    public int getReadAheadDepth() {
+        return readAheadDepth;
+    }
+
+    public void setReadAheadDepth(int readAheadDepth) {
+        this.readAheadDepth = readAheadDepth;
+    }
+
+    /**
+     * Return maximum number of members whose properties are initialized in
+     * parallel, <code>1</code> if they are initialized serially.
+     */
+    public int getMemberParallelism() {
+        return memberParallelism;
+    }
+
+    public void setMemberParallelism(int memberParallelism) {
+        this.memberParallelism = memberParallelism;
+    }
+
+    /**
+     * Return executor of background tasks or <code>null</code> if they are
+     * disabled.
+     */
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Return pool of I/O buffers or <code>null</code> to use the pool shared by
+     * the file system scheme.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Return cache of remote contents or <code>null</code> if it is disabled.
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+
+    public void setContentCache(ContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    /**
+     * Return cache of remote content blocks or <code>null</code> if it is
+     * disabled.
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Return cache of small remote files or <code>null</code> if it is disabled.
+     */
+    public MemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    public void setMemoryCache(MemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Return index of content digests used as strong entity tags or
+     * <code>null</code> if they are disabled.
+     */
+    public ETagIndex getETagIndex() {
+        return etagIndex;
+    }
+
+    public void setETagIndex(ETagIndex etagIndex) {
+        this.etagIndex = etagIndex;
+    }
+
+    /**
+     * Return true if digests are computed in background on first access,
+     * otherwise during the first full spool only.
+     */
+    public boolean isETagBackground() {
+        return etagBackground;
+    }
+
+    public void setETagBackground(boolean etagBackground) {
+        this.etagBackground = etagBackground;
+    }
+
+    /**
+     * Return table of MIME types by file extension or <code>null</code> if the
+     * content info of the file system is used.
+     */
+    public MimeTypes getMimeTypes() {
+        return mimeTypes;
+    }
+
+    public void setMimeTypes(MimeTypes mimeTypes) {
+        this.mimeTypes = mimeTypes;
+    }
+
+    /**
+     * Return cache of directory listings or <code>null</code> if it is
+     * disabled.
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public void setMetadataCache(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Return cache of paths not found or <code>null</code> if it is disabled.
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
+    /**
+     * Return pattern of names reported as not found by read requests without
+     * accessing the file system or <code>null</code> if all names are looked
+     * up.
+     */
+    public Pattern getProbePattern() {
+        return probePattern;
+    }
+
+    public void setProbePattern(Pattern probePattern) {
+        this.probePattern = probePattern;
+    }
+
+    /**
+     * Return true if uploaded files are written to a temporary file and renamed
+     * to the target when complete, otherwise the target is written directly.
+     */
+    public boolean isAtomicPut() {
+        return atomicPut;
+    }
+
+    public void setAtomicPut(boolean atomicPut) {
+        this.atomicPut = atomicPut;
+    }
+
+    /**
+     * Return time in milliseconds after which temporary files of unfinished
+     * uploads are deleted, <code>0</code> if they are kept.
+     */
+    public long getUploadTtl() {
+        return uploadTtl;
+    }
+
+    public void setUploadTtl(long uploadTtl) {
+        this.uploadTtl = uploadTtl;
+    }
+
+    /**
+     * Mark upload of the path as in progress.
+     *
+     * @return false if another upload of the path is in progress
+     */
+    public boolean beginUpload(String path) {
+        return uploads.add(path);
+    }
+
+    public void endUpload(String path) {
+        uploads.remove(path);
+    }
+
     public VfsDavResourceFactory(LockManager lockMgr, FileObject root) {
         this.lockMgr = lockMgr;
         this.root = root;
@@ -39,12 +253,36 @@ public class VfsDavResourceFactory implements DavResourceFactory {
         DavResource resource;
         try {
             DavSession session = request.getDavSession();
+            boolean readRequest = isReadRequest(request);
+            String path = locator.getResourcePath();
+            if (readRequest && isMissing(path)) {
+                if (log.isTraceEnabled())
+                    log.trace("# createResource by request: {}, cached as not found", locator.getRepositoryPath());
+
+                resource = new VfsDavResource(locator, this, session, false);
+                resource.addLockManager(lockMgr);
+                return resource;
+            }
+            if (metadataCache != null && readRequest) {
+                MetadataCache.Entry entry = metadataCache.getEntry(path);
+                // contents of files are spooled with their current status, not the listed one
+                if (entry != null && (entry.getType().hasChildren() || !isContentRequest(request))) {
+                    resource = createMemberResource(locator, session, entry);
+                    if (resource != null) {
+                        return resource;
+                    }
+                }
+            }
+            long checked = System.currentTimeMillis();
             FileObject fobj = root.resolveFile(locator.getRepositoryPath());
 
             if (log.isTraceEnabled())
                 log.trace("# createResource by request: {}, exist: {}", locator.getRepositoryPath(), fobj.exists());
 
             resource = createResource(locator, session, request, fobj);
+            if (negativeCache != null && readRequest && path != null && !resource.exists()) {
+                negativeCache.put(path, checked);
+            }
             resource.addLockManager(lockMgr);
         } catch (FileSystemException e) {
             log.debug("createResource by request error ", e);
@@ -71,6 +309,90 @@ public class VfsDavResourceFactory implements DavResourceFactory {
         return resource;
     }
 
+    /**
+     * Create resource of a child returned by the listing of its parent. The
+     * child is not resolved again and its type is taken from the listing. With
+     * the {@link org.apache.commons.vfs2.CacheStrategy#ON_CALL} strategy the
+     * undecorated child is used, so attributes returned with the listing are
+     * not refreshed on every call.
+     *
+     * @return resource or <code>null</code> if the child does not exist anymore
+     */
+    public DavResource createMemberResource(DavResourceLocator locator, DavSession session, FileObject child)
+            throws DavException {
+        FileObject fobj = child;
+        if (fobj instanceof OnCallRefreshFileObject) {
+            fobj = ((OnCallRefreshFileObject) fobj).getDecoratedFileObject();
+        }
+        try {
+            FileType type = fobj.getType();
+            if (log.isTraceEnabled())
+                log.trace("# createMemberResource: {}, type: {}", locator.getRepositoryPath(), type);
+
+            if (!type.hasContent() && !type.hasChildren()) {
+                return null;
+            }
+            DavResource resource = new VfsDavResource(locator, this, session, fobj, type);
+            resource.addLockManager(lockMgr);
+            return resource;
+        } catch (FileSystemException e) {
+            log.debug("createMemberResource error ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Create resource of a child from the cached listing of its parent, the
+     * file system is not accessed.
+     *
+     * @return resource or <code>null</code> if the child is not a file or
+     *         folder
+     */
+    public DavResource createMemberResource(DavResourceLocator locator, DavSession session,
+            MetadataCache.Entry entry) throws DavException {
+        FileType type = entry.getType();
+        if (!type.hasContent() && !type.hasChildren()) {
+            return null;
+        }
+        VfsDavResource resource = new VfsDavResource(locator, this, session, entry.getFileObject(), type);
+        resource.setStat(entry.getContentLength(), entry.getModificationTime());
+        resource.addLockManager(lockMgr);
+        return resource;
+    }
+
+    /**
+     * Return true if the request does not change resources, so cached
+     * listings may be used.
+     */
+    protected boolean isReadRequest(DavServletRequest request) {
+        String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method) || "PROPFIND".equals(method)
+                || "OPTIONS".equals(method);
+    }
+
+    /**
+     * Return true if the request reads the content of a file, its length and
+     * modification time must not be taken from cached listings.
+     */
+    protected boolean isContentRequest(DavServletRequest request) {
+        String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * Return true if the path matches the probe pattern or it is cached as not
+     * found.
+     */
+    protected boolean isMissing(String path) {
+        if (path == null || "/".equals(path)) {
+            return false;
+        }
+        if (probePattern != null && probePattern.matcher(Text.getName(path)).matches()) {
+            return true;
+        }
+        return negativeCache != null && negativeCache.isMissing(path);
+    }
+
     protected DavResource createResource(DavResourceLocator locator, DavSession session, DavServletRequest request,
             FileObject fobj) throws DavException, FileSystemException {
         if (!fobj.exists()) {
@@ -2,22 +2,35 @@ package com.github.alanger.webdav;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.vfs2.CacheStrategy;
 import org.apache.commons.vfs2.FileObject;
@@ -31,6 +44,7 @@ import org.apache.commons.vfs2.cache.SoftRefFilesCache;
 import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
 import org.apache.commons.vfs2.impl.StandardFileSystemManager;
 import org.apache.commons.vfs2.provider.ftps.FtpsFileSystemConfigBuilder;
+import org.apache.commons.vfs2.provider.local.LocalFileSystem;
 import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
 import org.apache.commons.vfs2.provider.webdav4.Webdav4FileSystemConfigBuilder;
 import org.apache.commons.vfs2.provider.zip.ZipFileSystemConfigBuilder;
@@ -38,16 +52,21 @@ import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavLocatorFactory;
 import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavResourceFactory;
+import org.apache.jackrabbit.webdav.DavServletResponse;
 import org.apache.jackrabbit.webdav.DavSessionProvider;
 import org.apache.jackrabbit.webdav.WebdavRequest;
 import org.apache.jackrabbit.webdav.WebdavResponse;
+import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.apache.jackrabbit.webdav.lock.LockManager;
 import org.apache.jackrabbit.webdav.lock.SimpleLockManager;
 import org.apache.jackrabbit.webdav.property.DavProperty;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
 import org.apache.jackrabbit.webdav.server.AbstractWebdavServlet;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 
 public class VfsWebDavServlet extends AbstractWebdavServlet {
 
@@ -69,9 +88,79 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
     public static final String INIT_PARAM_BUILDER = "builder";
     public static final String INIT_PARAM_LOGGER = "logger-name";
     public static final String INIT_PARAM_AUDMETHODS = "audit-methods";
+    public static final String INIT_PARAM_BUFFERSIZE = "buffer-size";
+    public static final String INIT_PARAM_BUFFERMAXSIZE = "buffer-max-size";
+    public static final String INIT_PARAM_READAHEAD = "read-ahead";
+    public static final String INIT_PARAM_BACKGROUNDTHREADS = "background-threads";
+    public static final String INIT_PARAM_CONTENTCACHEDIR = "content-cache-dir";
+    public static final String INIT_PARAM_CONTENTCACHESIZE = "content-cache-size";
+    public static final String INIT_PARAM_BLOCKCACHEDIR = "block-cache-dir";
+    public static final String INIT_PARAM_BLOCKCACHESIZE = "block-cache-size";
+    public static final String INIT_PARAM_BLOCKSIZE = "block-size";
+    public static final String INIT_PARAM_MEMORYCACHESIZE = "memory-cache-size";
+    public static final String INIT_PARAM_MEMORYCACHEMAXENTRY = "memory-cache-max-entry";
+    public static final String INIT_PARAM_ETAGINDEX = "etag-index";
+    public static final String INIT_PARAM_ETAGMODE = "etag-mode";
+    public static final String INIT_PARAM_MEMBERPARALLELISM = "member-parallelism";
+    public static final String INIT_PARAM_MIMETYPES = "mime-types";
+    public static final String INIT_PARAM_PROPFINDMAXDEPTH = "propfind-max-depth";
+    public static final String INIT_PARAM_PROPFINDMAXENTRIES = "propfind-max-entries";
+    public static final String INIT_PARAM_PROPFINDTIMEOUT = "propfind-timeout";
+    public static final String INIT_PARAM_METADATACACHETTL = "metadata-cache-ttl";
+    public static final String INIT_PARAM_METADATACACHESTALE = "metadata-cache-stale";
+    public static final String INIT_PARAM_METADATACACHESIZE = "metadata-cache-size";
+    public static final String INIT_PARAM_NEGATIVECACHETTL = "negative-cache-ttl";
+    public static final String INIT_PARAM_NEGATIVECACHESIZE = "negative-cache-size";
+    public static final String INIT_PARAM_PROBEPATHS = "probe-paths";
+    public static final String INIT_PARAM_LISTINGPAGESIZE = "listing-page-size";
+    public static final String INIT_PARAM_LISTINGMAXOFFSET = "listing-max-offset";
+    public static final String INIT_PARAM_LISTINGETAG = "listing-etag";
+    public static final String INIT_PARAM_ATOMICPUT = "atomic-put";
+    public static final String INIT_PARAM_UPLOADTTL = "upload-ttl";
+
+    public static final String DEFAULT_READAHEAD = "sftp:2,smb:2,ftp:2,ftps:2";
+    public static final String DEFAULT_MEMBERPARALLELISM = "sftp:4,smb:8,webdav4:8,webdav4s:8";
+    public static final int DEFAULT_BACKGROUNDTHREADS = 64;
+    public static final long DEFAULT_CONTENTCACHESIZE = 1024L * 1024 * 1024;
+    public static final long DEFAULT_PROPFINDMAXENTRIES = 100000;
+    public static final long DEFAULT_PROPFINDTIMEOUT = 300000;
+    public static final String DEFAULT_METADATACACHETTL = "sftp:2000,smb:2000,ftp:2000,ftps:2000,"
+            + "webdav4:2000,webdav4s:2000";
+    public static final long DEFAULT_METADATACACHESTALE = 10000;
+    public static final long DEFAULT_METADATACACHESIZE = 100000;
+    public static final String DEFAULT_NEGATIVECACHETTL = "sftp:5000,smb:5000,ftp:5000,ftps:5000,"
+            + "webdav4:5000,webdav4s:5000";
+    public static final int DEFAULT_NEGATIVECACHESIZE = 10000;
+    public static final int DEFAULT_LISTINGPAGESIZE = 1000;
+    public static final int DEFAULT_LISTINGMAXOFFSET = 100000;
+    public static final String DEFAULT_LISTINGETAG = "digest";
+    public static final long DEFAULT_UPLOADTTL = 24L * 60 * 60 * 1000;
+
+    public static final String HEADER_RANGE = "Range";
+    public static final String HEADER_IF_RANGE = "If-Range";
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    public static final String HEADER_VARY = "Vary";
+    public static final String HEADER_UPLOAD_OFFSET = "Upload-Offset";
+
+    public static final String FORMAT_HTML = "html";
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String CONTENT_TYPE_JSON = "application/json";
+    public static final String CONTENT_TYPE_NDJSON = "application/x-ndjson";
+
+    public static final String LISTING_ETAG_MTIME = "mtime";
+    public static final String LISTING_ETAG_DIGEST = "digest";
+    public static final String LISTING_ETAG_NONE = "none";
 
     private boolean listingsDirectory = true;
     private boolean includeContextPath = true;
+    private int readAheadDepth = 0;
+    private int memberParallelism = 1;
+    private int backgroundThreads = DEFAULT_BACKGROUNDTHREADS;
     private List<String> auditMethods = null;
 
     private DavSessionProvider davSessionProvider;
@@ -84,6 +173,27 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
     private CacheStrategy cacheStrategy;
     private FileSystemManager fileSystemManager;
     private FileObject fileObject;
+    private BufferPool bufferPool;
+    private ObjectName bufferPoolName;
+    private ContentCache contentCache;
+    private BlockCache blockCache;
+    private MemoryCache memoryCache;
+    private ETagIndex etagIndex;
+    private boolean etagBackground = false;
+    private MimeTypes mimeTypes = MimeTypes.getDefault();
+    private MetadataCache metadataCache;
+    private NegativeCache negativeCache;
+    private Pattern probePattern;
+    private int propfindMaxDepth = DEPTH_INFINITY;
+    private long propfindMaxEntries = DEFAULT_PROPFINDMAXENTRIES;
+    private long propfindTimeout = DEFAULT_PROPFINDTIMEOUT;
+    private int listingPageSize = DEFAULT_LISTINGPAGESIZE;
+    private int listingMaxOffset = DEFAULT_LISTINGMAXOFFSET;
+    private String listingETag = DEFAULT_LISTINGETAG;
+    private boolean atomicPut = true;
+    private long uploadTtl = DEFAULT_UPLOADTTL;
+    private ExecutorService executorService;
+    private boolean executorServiceCreated = false;
 
     @Override
     protected boolean isPreconditionValid(WebdavRequest request, DavResource resource) {
@@ -130,7 +240,23 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
     @Override
     public DavResourceFactory getResourceFactory() {
         if (resourceFactory == null) {
-            resourceFactory = new VfsDavResourceFactory(getLockManager(), fileObject);
+            VfsDavResourceFactory vfsResourceFactory = new VfsDavResourceFactory(getLockManager(), fileObject);
+            vfsResourceFactory.setReadAheadDepth(readAheadDepth);
+            vfsResourceFactory.setMemberParallelism(memberParallelism);
+            vfsResourceFactory.setExecutorService(getExecutorService());
+            vfsResourceFactory.setBufferPool(bufferPool);
+            vfsResourceFactory.setContentCache(contentCache);
+            vfsResourceFactory.setBlockCache(blockCache);
+            vfsResourceFactory.setMemoryCache(memoryCache);
+            vfsResourceFactory.setETagIndex(etagIndex);
+            vfsResourceFactory.setETagBackground(etagBackground);
+            vfsResourceFactory.setMimeTypes(mimeTypes);
+            vfsResourceFactory.setMetadataCache(metadataCache);
+            vfsResourceFactory.setNegativeCache(negativeCache);
+            vfsResourceFactory.setProbePattern(probePattern);
+            vfsResourceFactory.setAtomicPut(atomicPut);
+            vfsResourceFactory.setUploadTtl(uploadTtl);
+            resourceFactory = vfsResourceFactory;
         }
         return resourceFactory;
     }
@@ -140,6 +266,242 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
         this.resourceFactory = resourceFactory;
     }
 
+    /**
+     * Return executor of background tasks, by default is a pool of at most
+     * {@link #getBackgroundThreads()} daemon threads shut down with the servlet.
+     * Tasks are not queued, if all threads are busy the task is rejected and
+     * the caller does the work itself (e.g. reads without read-ahead).
+     */
+    public ExecutorService getExecutorService() {
+        if (executorService == null) {
+            final String prefix = "webdav-vfs-" + (getServletConfig() != null ? getServletName() : "servlet") + "-";
+            final AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(backgroundThreads, backgroundThreads, 60L,
+                    TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                        Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            executorService = executor;
+            executorServiceCreated = true;
+        }
+        return executorService;
+    }
+
+    /**
+     * Return maximum number of threads of the default executor of background
+     * tasks.
+     */
+    public int getBackgroundThreads() {
+        return backgroundThreads;
+    }
+
+    public void setBackgroundThreads(int backgroundThreads) {
+        this.backgroundThreads = backgroundThreads;
+    }
+
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Return pool of I/O buffers of this servlet.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Return cache of remote contents or <code>null</code> if it is disabled.
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+
+    public void setContentCache(ContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    /**
+     * Return cache of remote content blocks or <code>null</code> if it is
+     * disabled.
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Return cache of small remote files or <code>null</code> if it is disabled.
+     */
+    public MemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    public void setMemoryCache(MemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Return index of content digests used as strong entity tags or
+     * <code>null</code> if they are disabled.
+     */
+    public ETagIndex getETagIndex() {
+        return etagIndex;
+    }
+
+    public void setETagIndex(ETagIndex etagIndex) {
+        this.etagIndex = etagIndex;
+    }
+
+    /**
+     * Return maximum depth of <code>PROPFIND</code> with
+     * <code>Depth: infinity</code>, <code>0</code> if such requests are
+     * rejected.
+     */
+    public int getPropfindMaxDepth() {
+        return propfindMaxDepth;
+    }
+
+    public void setPropfindMaxDepth(int propfindMaxDepth) {
+        this.propfindMaxDepth = propfindMaxDepth;
+    }
+
+    /**
+     * Return maximum number of responses of <code>PROPFIND</code> with
+     * <code>Depth: infinity</code>, <code>-1</code> if unlimited.
+     */
+    public long getPropfindMaxEntries() {
+        return propfindMaxEntries;
+    }
+
+    public void setPropfindMaxEntries(long propfindMaxEntries) {
+        this.propfindMaxEntries = propfindMaxEntries;
+    }
+
+    /**
+     * Return maximum time of <code>PROPFIND</code> with
+     * <code>Depth: infinity</code> in milliseconds, <code>-1</code> if
+     * unlimited.
+     */
+    public long getPropfindTimeout() {
+        return propfindTimeout;
+    }
+
+    public void setPropfindTimeout(long propfindTimeout) {
+        this.propfindTimeout = propfindTimeout;
+    }
+
+    /**
+     * Return maximum number of entries of a page of the HTML directory
+     * listing.
+     */
+    public int getListingPageSize() {
+        return listingPageSize;
+    }
+
+    public void setListingPageSize(int listingPageSize) {
+        this.listingPageSize = listingPageSize;
+    }
+
+    /**
+     * Return maximum offset of a page of the HTML directory listing, entries
+     * up to the offset are kept in memory while listing.
+     */
+    public int getListingMaxOffset() {
+        return listingMaxOffset;
+    }
+
+    public void setListingMaxOffset(int listingMaxOffset) {
+        this.listingMaxOffset = listingMaxOffset;
+    }
+
+    /**
+     * Return validation of directory listings, one of <code>mtime</code>,
+     * <code>digest</code> or <code>none</code>.
+     */
+    public String getListingETag() {
+        return listingETag;
+    }
+
+    public void setListingETag(String listingETag) {
+        this.listingETag = listingETag;
+    }
+
+    /**
+     * Return cache of directory listings or <code>null</code> if it is
+     * disabled.
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public void setMetadataCache(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Return cache of paths not found or <code>null</code> if it is disabled.
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
+    /**
+     * Return pattern of names reported as not found without accessing the
+     * file system or <code>null</code> if all names are looked up.
+     */
+    public Pattern getProbePattern() {
+        return probePattern;
+    }
+
+    public void setProbePattern(Pattern probePattern) {
+        this.probePattern = probePattern;
+    }
+
+    /**
+     * Return true if uploaded files are renamed to the target when complete.
+     */
+    public boolean isAtomicPut() {
+        return atomicPut;
+    }
+
+    public void setAtomicPut(boolean atomicPut) {
+        this.atomicPut = atomicPut;
+    }
+
+    /**
+     * Return time in milliseconds after which temporary files of unfinished
+     * uploads are deleted, <code>0</code> if they are kept.
+     */
+    public long getUploadTtl() {
+        return uploadTtl;
+    }
+
+    public void setUploadTtl(long uploadTtl) {
+        this.uploadTtl = uploadTtl;
+    }
+
+    public MimeTypes getMimeTypes() {
+        return mimeTypes;
+    }
+
+    public void setMimeTypes(MimeTypes mimeTypes) {
+        this.mimeTypes = mimeTypes;
+    }
+
     public UserAuthenticator getUserAuthenticator() {
         return userAuthenticator;
     }
@@ -339,6 +701,183 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
             throw new ServletException(message, e);
         }
 
+        String scheme = fileObject.getName().getScheme();
+        if (bufferPool == null)
+            bufferPool = BufferPool.create(scheme);
+        try {
+            String bufferSizeValue = getProperty(config.getInitParameter(INIT_PARAM_BUFFERSIZE));
+            if (bufferSizeValue != null)
+                bufferPool.setMinBufferSize(Integer.parseInt(bufferSizeValue));
+            String bufferMaxSizeValue = getProperty(config.getInitParameter(INIT_PARAM_BUFFERMAXSIZE));
+            if (bufferMaxSizeValue != null)
+                bufferPool.setMaxBufferSize(Integer.parseInt(bufferMaxSizeValue));
+            String readAheadValue = getProperty(config.getInitParameter(INIT_PARAM_READAHEAD));
+            String readAhead = getSchemeValue(readAheadValue != null ? readAheadValue : DEFAULT_READAHEAD, scheme);
+            if (readAhead != null)
+                readAheadDepth = Integer.parseInt(readAhead);
+            String memberParallelismValue = getProperty(config.getInitParameter(INIT_PARAM_MEMBERPARALLELISM));
+            String parallelism = getSchemeValue(
+                    memberParallelismValue != null ? memberParallelismValue : DEFAULT_MEMBERPARALLELISM, scheme);
+            if (parallelism != null)
+                memberParallelism = Integer.parseInt(parallelism);
+            String backgroundThreadsValue = getProperty(config.getInitParameter(INIT_PARAM_BACKGROUNDTHREADS));
+            if (backgroundThreadsValue != null)
+                backgroundThreads = Integer.parseInt(backgroundThreadsValue);
+            if (backgroundThreads <= 0)
+                throw new ServletException(message + ", background threads '" + backgroundThreads + "' not valid");
+        } catch (IllegalArgumentException e) {
+            throw new ServletException(message, e);
+        }
+        registerBufferPool(bufferPool, scheme, config.getServletName());
+
+        String contentCacheDirValue = getProperty(config.getInitParameter(INIT_PARAM_CONTENTCACHEDIR));
+        if (contentCache == null && contentCacheDirValue != null
+                && !(fileObject.getFileSystem() instanceof LocalFileSystem)) {
+            String contentCacheSizeValue = getProperty(config.getInitParameter(INIT_PARAM_CONTENTCACHESIZE));
+            try {
+                long contentCacheSize = contentCacheSizeValue != null ? Long.parseLong(contentCacheSizeValue)
+                        : DEFAULT_CONTENTCACHESIZE;
+                // separate directory for each root, so servlets may share the cache directory
+                File contentCacheDir = new File(contentCacheDirValue,
+                        ContentCache.hash(fileObject.getName().getURI()).substring(0, 16));
+                setContentCache(new ContentCache(contentCacheDir, contentCacheSize));
+            } catch (IOException | IllegalArgumentException e) {
+                throw new ServletException(message, e);
+            }
+        }
+
+        String blockCacheSizeValue = getProperty(config.getInitParameter(INIT_PARAM_BLOCKCACHESIZE));
+        if (blockCache == null && blockCacheSizeValue != null
+                && !(fileObject.getFileSystem() instanceof LocalFileSystem)) {
+            String blockCacheDirValue = getProperty(config.getInitParameter(INIT_PARAM_BLOCKCACHEDIR));
+            String blockSizeValue = getProperty(config.getInitParameter(INIT_PARAM_BLOCKSIZE));
+            File blockCacheFile = null;
+            try {
+                int blockSize = blockSizeValue != null ? Integer.parseInt(blockSizeValue)
+                        : BlockCache.DEFAULT_BLOCK_SIZE;
+                long blockCacheSize = Long.parseLong(blockCacheSizeValue);
+                blockCacheFile = File.createTempFile("webdav-vfs-blocks-", ".cache",
+                        blockCacheDirValue != null ? new File(blockCacheDirValue) : null);
+                setBlockCache(new BlockCache(blockCacheFile, blockSize, blockCacheSize));
+            } catch (IOException | IllegalArgumentException e) {
+                if (blockCacheFile != null && !blockCacheFile.delete())
+                    logger.debug("Delete block cache file error: {}", blockCacheFile);
+                throw new ServletException(message, e);
+            }
+        }
+
+        String memoryCacheSizeValue = getProperty(config.getInitParameter(INIT_PARAM_MEMORYCACHESIZE));
+        if (memoryCache == null && memoryCacheSizeValue != null
+                && !(fileObject.getFileSystem() instanceof LocalFileSystem)) {
+            String memoryCacheMaxEntryValue = getProperty(config.getInitParameter(INIT_PARAM_MEMORYCACHEMAXENTRY));
+            try {
+                int maxEntrySize = memoryCacheMaxEntryValue != null ? Integer.parseInt(memoryCacheMaxEntryValue)
+                        : MemoryCache.DEFAULT_MAX_ENTRY_SIZE;
+                setMemoryCache(new MemoryCache(Long.parseLong(memoryCacheSizeValue), maxEntrySize));
+            } catch (IllegalArgumentException e) {
+                throw new ServletException(message, e);
+            }
+        }
+
+        String etagIndexValue = getProperty(config.getInitParameter(INIT_PARAM_ETAGINDEX));
+        if (etagIndex == null && etagIndexValue != null) {
+            try {
+                setETagIndex(new ETagIndex(new File(etagIndexValue)));
+            } catch (IOException e) {
+                throw new ServletException(message, e);
+            }
+        }
+        String etagModeValue = getProperty(config.getInitParameter(INIT_PARAM_ETAGMODE));
+        if ("background".equals(etagModeValue))
+            etagBackground = true;
+        else if (etagModeValue != null && !"spool".equals(etagModeValue))
+            throw new ServletException(message + ", ETag mode '" + etagModeValue + "' not valid");
+
+        String listingETagValue = getProperty(config.getInitParameter(INIT_PARAM_LISTINGETAG));
+        if (LISTING_ETAG_MTIME.equals(listingETagValue) || LISTING_ETAG_DIGEST.equals(listingETagValue)
+                || LISTING_ETAG_NONE.equals(listingETagValue))
+            listingETag = listingETagValue;
+        else if (listingETagValue != null)
+            throw new ServletException(message + ", listing ETag '" + listingETagValue + "' not valid");
+
+        String mimeTypesValue = getProperty(config.getInitParameter(INIT_PARAM_MIMETYPES));
+        if ("content-info".equals(mimeTypesValue)) {
+            setMimeTypes(null);
+        } else if (mimeTypesValue != null && mimeTypes != null) {
+            try {
+                setMimeTypes(mimeTypes.withOverrides(mimeTypesValue));
+            } catch (IllegalArgumentException e) {
+                throw new ServletException(message, e);
+            }
+        }
+
+        String metadataCacheTtlValue = getProperty(config.getInitParameter(INIT_PARAM_METADATACACHETTL));
+        String metadataCacheTtl = getSchemeValue(
+                metadataCacheTtlValue != null ? metadataCacheTtlValue : DEFAULT_METADATACACHETTL, scheme);
+        if (metadataCache == null && metadataCacheTtl != null && !"0".equals(metadataCacheTtl)) {
+            String metadataCacheStaleValue = getProperty(config.getInitParameter(INIT_PARAM_METADATACACHESTALE));
+            String metadataCacheSizeValue = getProperty(config.getInitParameter(INIT_PARAM_METADATACACHESIZE));
+            try {
+                long stale = metadataCacheStaleValue != null ? Long.parseLong(metadataCacheStaleValue)
+                        : DEFAULT_METADATACACHESTALE;
+                long size = metadataCacheSizeValue != null ? Long.parseLong(metadataCacheSizeValue)
+                        : DEFAULT_METADATACACHESIZE;
+                setMetadataCache(new MetadataCache(Long.parseLong(metadataCacheTtl), stale, size,
+                        getExecutorService()));
+            } catch (IllegalArgumentException e) {
+                throw new ServletException(message, e);
+            }
+        }
+
+        String negativeCacheTtlValue = getProperty(config.getInitParameter(INIT_PARAM_NEGATIVECACHETTL));
+        String negativeCacheTtl = getSchemeValue(
+                negativeCacheTtlValue != null ? negativeCacheTtlValue : DEFAULT_NEGATIVECACHETTL, scheme);
+        if (negativeCache == null && negativeCacheTtl != null && !"0".equals(negativeCacheTtl)) {
+            String negativeCacheSizeValue = getProperty(config.getInitParameter(INIT_PARAM_NEGATIVECACHESIZE));
+            try {
+                int size = negativeCacheSizeValue != null ? Integer.parseInt(negativeCacheSizeValue)
+                        : DEFAULT_NEGATIVECACHESIZE;
+                setNegativeCache(new NegativeCache(Long.parseLong(negativeCacheTtl), size));
+            } catch (IllegalArgumentException e) {
+                throw new ServletException(message, e);
+            }
+        }
+
+        String probePathsValue = getProperty(config.getInitParameter(INIT_PARAM_PROBEPATHS));
+        if (probePattern == null && probePathsValue != null) {
+            setProbePattern(NegativeCache.compileNames(probePathsValue));
+        }
+
+        String atomicPutValue = getProperty(config.getInitParameter(INIT_PARAM_ATOMICPUT));
+        if (atomicPutValue != null)
+            atomicPut = Boolean.parseBoolean(atomicPutValue);
+
+        try {
+            String propfindMaxDepthValue = getProperty(config.getInitParameter(INIT_PARAM_PROPFINDMAXDEPTH));
+            if (propfindMaxDepthValue != null)
+                propfindMaxDepth = Integer.parseInt(propfindMaxDepthValue);
+            String propfindMaxEntriesValue = getProperty(config.getInitParameter(INIT_PARAM_PROPFINDMAXENTRIES));
+            if (propfindMaxEntriesValue != null)
+                propfindMaxEntries = Long.parseLong(propfindMaxEntriesValue);
+            String propfindTimeoutValue = getProperty(config.getInitParameter(INIT_PARAM_PROPFINDTIMEOUT));
+            if (propfindTimeoutValue != null)
+                propfindTimeout = Long.parseLong(propfindTimeoutValue);
+            String listingPageSizeValue = getProperty(config.getInitParameter(INIT_PARAM_LISTINGPAGESIZE));
+            if (listingPageSizeValue != null)
+                listingPageSize = Integer.parseInt(listingPageSizeValue);
+            String listingMaxOffsetValue = getProperty(config.getInitParameter(INIT_PARAM_LISTINGMAXOFFSET));
+            if (listingMaxOffsetValue != null)
+                listingMaxOffset = Integer.parseInt(listingMaxOffsetValue);
+            String uploadTtlValue = getProperty(config.getInitParameter(INIT_PARAM_UPLOADTTL));
+            if (uploadTtlValue != null)
+                uploadTtl = Long.parseLong(uploadTtlValue);
+            if (listingPageSize <= 0 || listingMaxOffset < 0)
+                throw new ServletException(message + ", listing page '" + listingPageSize + "/" + listingMaxOffset
+                        + "' not valid");
+        } catch (NumberFormatException e) {
+            throw new ServletException(message, e);
+        }
+
         logger.info("Init servlet: {}, rootpath: {}, listingsDirectory: {}, version: {}", config.getServletName(),
                 fileObject.getPublicURIString(), listingsDirectory, VERSION);
         super.init(config);
@@ -379,17 +918,400 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
     protected void doGet(WebdavRequest request, WebdavResponse response, DavResource resource)
             throws IOException, DavException {
         if (listingsDirectory && resource.exists() && resource.isCollection()) {
-            printDirectory(request, response, resource);
+            // format of the listing depends on the Accept header
+            response.setHeader(HEADER_VARY, "Accept");
+            if (isListingNotModified(request, response, resource, null)) {
+                return;
+            }
+            String format = getListingFormat(request);
+            if (FORMAT_JSON.equals(format) || FORMAT_NDJSON.equals(format)) {
+                printDirectoryJson(request, response, resource, FORMAT_NDJSON.equals(format));
+            } else {
+                printDirectory(request, response, resource);
+            }
+            return;
+        }
+        if (resource instanceof VfsDavResource && resource.exists() && !resource.isCollection()) {
+            VfsDavResource vfsResource = (VfsDavResource) resource;
+            if (isNotModified(request, response, vfsResource)) {
+                return;
+            }
+            if (request.getHeader(HEADER_RANGE) == null || !spoolRange(request, response, vfsResource)) {
+                vfsResource.spool(getOutputContext(response, response.getOutputStream()));
+                response.flushBuffer();
+            }
             return;
         }
         super.doGet(request, response, resource);
     }
 
+    @Override
+    protected void doHead(WebdavRequest request, WebdavResponse response, DavResource resource) throws IOException {
+        if (request.getParameter("upload") != null) {
+            sendUploadOffset(response, resource);
+            return;
+        }
+        if (resource instanceof VfsDavResource && resource.exists() && !resource.isCollection()) {
+            VfsDavResource vfsResource = (VfsDavResource) resource;
+            if (!isNotModified(request, response, vfsResource)) {
+                // headers only, content of the resource is not opened
+                vfsResource.spool(getOutputContext(response, null));
+                response.flushBuffer();
+            }
+            return;
+        }
+        super.doHead(request, response, resource);
+    }
+
+    /**
+     * Upload the content, an existing resource is replaced unless the
+     * <code>Overwrite</code> header is <code>F</code>, then the 412
+     * (Precondition Failed) response is sent as for <code>COPY</code> and
+     * <code>MOVE</code>. Requests with <code>Content-Range</code> header
+     * upload a part of the content, see {@link #putRange}.
+     */
+    @Override
+    protected void doPut(WebdavRequest request, WebdavResponse response, DavResource resource)
+            throws IOException, DavException {
+        if (resource.exists() && !request.isOverwrite()) {
+            response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
+        }
+        if (request.getHeader(HEADER_CONTENT_RANGE) != null && resource instanceof VfsDavResource) {
+            putRange(request, response, resource);
+            return;
+        }
+        super.doPut(request, response, resource);
+    }
+
+    /**
+     * Upload a part of the content given by the <code>Content-Range</code>
+     * header, ex.: <code>bytes 1048576-2097151/10485760</code>. The part may
+     * start at most at the number of bytes already uploaded, which is returned
+     * in the <code>Upload-Offset</code> header of this response and of the
+     * <code>HEAD</code> request with <code>upload</code> query parameter. The
+     * response is 201 (Created) or 204 (No Content) for the last part of the
+     * complete length, otherwise 202 (Accepted).
+     */
+    protected void putRange(WebdavRequest request, WebdavResponse response, DavResource resource)
+            throws IOException, DavException {
+        String contentRange = request.getHeader(HEADER_CONTENT_RANGE);
+        ByteRange range = ByteRange.parseContentRange(contentRange);
+        long contentLength = request.getContentLengthLong();
+        if (range == null || contentLength >= 0 && contentLength != range.getLength()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid Content-Range: " + contentRange);
+            return;
+        }
+        long completeLength = ByteRange.parseCompleteLength(contentRange);
+        DavResource parent = resource.getCollection();
+        if (!(parent instanceof VfsDavResource) || !parent.exists() || !parent.isCollection()) {
+            response.sendError(HttpServletResponse.SC_CONFLICT);
+            return;
+        }
+        if (resource.isCollection()) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        VfsDavResource vfsParent = (VfsDavResource) parent;
+        long offset = vfsParent.getUploadOffset(resource);
+        if (range.getStart() > offset) {
+            response.setHeader(HEADER_UPLOAD_OFFSET, String.valueOf(offset));
+            response.setHeader(HEADER_CONTENT_RANGE, ByteRange.toUnsatisfiedContentRange(offset));
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        boolean existed = resource.exists();
+        offset = vfsParent.addMember(resource, getInputContext(request, request.getInputStream()), range,
+                completeLength);
+        response.setHeader(HEADER_UPLOAD_OFFSET, String.valueOf(offset));
+        if (range.getEnd() + 1 == completeLength && offset >= completeLength) {
+            response.setStatus(existed ? HttpServletResponse.SC_NO_CONTENT : HttpServletResponse.SC_CREATED);
+        } else {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        }
+    }
+
+    /**
+     * Send number of bytes received by resumable uploads of the resource in
+     * the <code>Upload-Offset</code> header.
+     */
+    protected void sendUploadOffset(WebdavResponse response, DavResource resource) throws IOException {
+        DavResource parent = resource.getCollection();
+        if (!(parent instanceof VfsDavResource) || !parent.exists() || resource.isCollection()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try {
+            long offset = ((VfsDavResource) parent).getUploadOffset(resource);
+            response.setHeader(HEADER_UPLOAD_OFFSET, String.valueOf(offset));
+            response.setHeader(HEADER_CACHE_CONTROL, "no-store");
+            response.setStatus(HttpServletResponse.SC_OK);
+        } catch (DavException e) {
+            response.sendError(e.getErrorCode());
+        }
+    }
+
+    /**
+     * Write <code>multistatus</code> response by {@link MultiStatusWriter}, so
+     * every response is sent as soon as properties of its resource are read.
+     * Requested properties are passed to the resource, so only these
+     * properties of the members are read from the file system.
+     */
+    @Override
+    protected void doPropFind(WebdavRequest request, WebdavResponse response, DavResource resource)
+            throws IOException, DavException {
+        if (!(resource instanceof VfsDavResource) || request.getHeader(HEADER_CONTENT_ENCODING) != null) {
+            super.doPropFind(request, response, resource);
+            return;
+        }
+        if (!resource.exists()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        int depth = request.getDepth(DEPTH_INFINITY);
+        if (depth == DEPTH_INFINITY && propfindMaxDepth <= 0) {
+            throw new DavException(HttpServletResponse.SC_FORBIDDEN, "Depth infinity is not supported", null,
+                    createErrorCondition("propfind-finite-depth"));
+        }
+        PropFindInfo propFindInfo = PropFindInfo.parse(request.getInputStream());
+        DavPropertyNameSet propNameSet = propFindInfo.getPropertyNames();
+        int propFindType = propFindInfo.getType();
+        ((VfsDavResource) resource)
+                .setRequestedProperties(propFindType == PROPFIND_BY_PROPERTY ? propNameSet : null);
+
+        response.setStatus(DavServletResponse.SC_MULTI_STATUS);
+        response.setContentType("text/xml; charset=UTF-8");
+        OutputStream out = response.getOutputStream();
+        GZIPOutputStream gzip = null;
+        if (acceptsGzipEncoding(request)) {
+            response.setHeader(HEADER_CONTENT_ENCODING, "gzip");
+            gzip = new GZIPOutputStream(out);
+            out = gzip;
+        }
+        try (MultiStatusWriter writer = new MultiStatusWriter(out)) {
+            if (depth == DEPTH_INFINITY) {
+                writer.writeTree((VfsDavResource) resource, propNameSet, propFindType, propfindMaxDepth,
+                        propfindMaxEntries, propfindTimeout);
+            } else {
+                writer.writeTree((VfsDavResource) resource, propNameSet, propFindType, depth, -1, -1);
+            }
+        }
+        if (gzip != null) {
+            gzip.finish();
+        }
+        response.flushBuffer();
+    }
+
+    /**
+     * Create <code>DAV:</code> element of precondition, or <code>null</code> if
+     * the document cannot be created.
+     */
+    protected static Element createErrorCondition(String name) {
+        try {
+            return DomUtil.createElement(DomUtil.createDocument(), name, NAMESPACE);
+        } catch (ParserConfigurationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return true if <code>Accept-Encoding</code> header of the request
+     * accepts <code>gzip</code> encoding.
+     */
+    protected static boolean acceptsGzipEncoding(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            if (!"gzip".equalsIgnoreCase(params[0].trim())) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Float.parseFloat(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluate <code>If-None-Match</code> and <code>If-Modified-Since</code>
+     * headers against the cached properties of the resource, see RFC 7232. If
+     * the resource has not been modified, the 304 (Not Modified) response is
+     * sent without opening the content.
+     *
+     * @return <code>true</code> if the response has been sent
+     */
+    protected boolean isNotModified(WebdavRequest request, WebdavResponse response, VfsDavResource resource) {
+        return isNotModified(request, response, resource.getETag(), resource.getModificationTime());
+    }
+
+    /**
+     * Evaluate <code>If-None-Match</code> and <code>If-Modified-Since</code>
+     * headers against the given validators and send the 304 (Not Modified)
+     * response if they match.
+     *
+     * @param etag
+     *            entity tag or <code>null</code> if unknown
+     * @param modificationTime
+     *            modification time or {@link #UNDEFINED_TIME} if unknown
+     * @return <code>true</code> if the response has been sent
+     */
+    protected boolean isNotModified(WebdavRequest request, WebdavResponse response, String etag,
+            long modificationTime) {
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            // If-Modified-Since is ignored when If-None-Match is present
+            notModified = isETagMatched(ifNoneMatch, etag);
+        } else {
+            long modSince;
+            try {
+                modSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+            } catch (IllegalArgumentException e) {
+                modSince = UNDEFINED_TIME;
+            }
+            long modTime = modSince > UNDEFINED_TIME ? modificationTime : UNDEFINED_TIME;
+            // formatted modification time lost the milli-second precision
+            notModified = modTime > UNDEFINED_TIME && (modTime / 1000 * 1000) <= modSince;
+        }
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            if (etag != null) {
+                response.setHeader(HEADER_ETAG, etag);
+            }
+            if (modificationTime > UNDEFINED_TIME) {
+                response.setDateHeader(HEADER_LAST_MODIFIED, modificationTime);
+            }
+        }
+        return notModified;
+    }
+
+    /**
+     * Compare the list of entity tags of the <code>If-None-Match</code> header
+     * with the weak comparison function.
+     */
+    protected boolean isETagMatched(String header, String etag) {
+        if ("*".equals(header.trim())) {
+            return true;
+        }
+        if (etag == null) {
+            return false;
+        }
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Spool part of the resource content if the request contains a
+     * <code>Range</code> header, see RFC 7233.
+     *
+     * @return <code>false</code> if the header must be ignored and the whole
+     *         content sent
+     */
+    protected boolean spoolRange(WebdavRequest request, WebdavResponse response, VfsDavResource resource)
+            throws IOException {
+        long length = resource.getContentLength();
+        List<ByteRange> ranges = ByteRange.parse(request.getHeader(HEADER_RANGE), length);
+        if (ranges == null || !isIfRangeMatched(request, resource)) {
+            return false;
+        }
+        if (ranges.isEmpty()) {
+            response.setHeader(HEADER_CONTENT_RANGE, ByteRange.toUnsatisfiedContentRange(length));
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return true;
+        }
+
+        ranges = ByteRange.merge(ranges);
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        OutputContext outputContext = getOutputContext(response, response.getOutputStream());
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setHeader(HEADER_CONTENT_RANGE, range.toContentRange(length));
+            resource.spool(outputContext, range);
+        } else {
+            String boundary = UUID.randomUUID().toString().replace("-", "");
+            resource.spool(outputContext, ranges, boundary);
+        }
+        response.flushBuffer();
+        return true;
+    }
+
+    /**
+     * Evaluate the <code>If-Range</code> header, entity tags are compared with
+     * the strong comparison function.
+     *
+     * @return <code>true</code> if the header is absent or matches the resource
+     */
+    protected boolean isIfRangeMatched(WebdavRequest request, VfsDavResource resource) {
+        String ifRange = request.getHeader(HEADER_IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(resource.getETag());
+        }
+        try {
+            long date = request.getDateHeader(HEADER_IF_RANGE);
+            long modTime = resource.getModificationTime();
+            return modTime != UNDEFINED_TIME && (modTime / 1000 * 1000) == date;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     @Override
     public void destroy() {
         logger.info("Destroy servlet: {}, rootpath: {}, listingsDirectory: {}, version: {}",
                 getServletConfig() != null ? getServletName() : this,
                 fileObject != null ? fileObject.getPublicURIString() : fileObject, listingsDirectory, VERSION);
+        if (executorService != null && executorServiceCreated) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        if (bufferPoolName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(bufferPoolName);
+            } catch (JMException e) {
+                logger.debug("Unregister buffer pool error", e);
+            }
+            bufferPoolName = null;
+        }
+        if (etagIndex != null) {
+            try {
+                etagIndex.close();
+            } catch (IOException e) {
+                logger.debug("Close ETag index error", e);
+            }
+            etagIndex = null;
+        }
+        if (blockCache != null) {
+            try {
+                blockCache.close();
+            } catch (IOException e) {
+                logger.debug("Close block cache error", e);
+            }
+            blockCache = null;
+        }
         if (fileSystemManager != null) {
             if (fileObject != null) {
                 fileSystemManager.closeFileSystem(fileObject.getFileSystem());
@@ -399,6 +1321,53 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
         super.destroy();
     }
 
+    /**
+     * Expose the buffer pool of this servlet as MXBean, named by the file system
+     * scheme and the servlet name.
+     */
+    protected void registerBufferPool(BufferPool bufferPool, String scheme, String servletName) {
+        try {
+            ObjectName name = new ObjectName(VfsWebDavServlet.class.getPackage().getName()
+                    + ":type=BufferPool,scheme=" + scheme + ",name=" + ObjectName.quote(servletName));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(bufferPool, name);
+                bufferPoolName = name;
+            }
+        } catch (JMException e) {
+            logger.debug("Register buffer pool error", e);
+        }
+    }
+
+    /**
+     * Return value for the file system scheme from a comma-separated list of
+     * <code>scheme:value</code> pairs, ex.: <code>sftp:4,smb:2,*:0</code>. Value
+     * without scheme or with <code>*</code> applies to other schemes.
+     *
+     * @return value or <code>null</code> if not specified for the scheme
+     */
+    protected static String getSchemeValue(String value, String scheme) {
+        if (value == null) {
+            return null;
+        }
+        String fallback = null;
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            int colon = entry.lastIndexOf(':');
+            if (colon < 0) {
+                fallback = entry;
+            } else {
+                String key = entry.substring(0, colon).trim();
+                if (key.equalsIgnoreCase(scheme)) {
+                    return entry.substring(colon + 1).trim();
+                } else if ("*".equals(key)) {
+                    fallback = entry.substring(colon + 1).trim();
+                }
+            }
+        }
+        return fallback;
+    }
+
     protected String getProperty(String key) {
         if (key != null && key.startsWith("${") && key.endsWith("}")) {
             key = System.getProperty(key.substring(2, key.length() - 1));
@@ -469,7 +1438,6 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
         }
     }
 
-    private static final DateFormat shortDF = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM);
     private static final String CSS;
 
     static {
@@ -487,117 +1455,289 @@ public class VfsWebDavServlet extends AbstractWebdavServlet {
 
     protected void printDirectory(WebdavRequest request, WebdavResponse response, DavResource resource)
             throws IOException {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("<html>");
-        sb.append("<head>");
-        sb.append("<title>" + getServletConfig().getServletName() + "</title>");
-        sb.append("<link rel=\"SHORTCUT ICON\" href=\"data:image/png;base64,XXXXX\">");
-        sb.append("<style type=\"text/css\">");
-        sb.append(getCSS());
-        sb.append("</style>");
-        sb.append("</head>");
-        sb.append("<body>");
-
-        String resourcePath = resource.getResourcePath().endsWith("/") ? resource.getResourcePath()
-                : resource.getResourcePath() + "/";
-        sb.append("<h2>Content of folder: " + resourcePath + "</h2>");
-
-        sb.append("<table width=\"100%\" cellspacing=\"0\" cellpadding=\"5\" align=\"center\">\r\n");
-
-        final String tdHeadStart = "<td align=\"left\"><font size=\"+1\"><strong>";
-        final String tdHeadEnd = "</strong></font></td>\r\n";
-
-        // Head table
-        sb.append("<tr>\r\n");
-        sb.append(tdHeadStart);
-        sb.append("Name");
-        sb.append(tdHeadEnd);
-        sb.append(tdHeadStart);
-        sb.append("Size");
-        sb.append(tdHeadEnd);
-        sb.append(tdHeadStart);
-        sb.append("Type");
-        sb.append(tdHeadEnd);
-        sb.append(tdHeadStart);
-        sb.append("Modified");
-        sb.append(tdHeadEnd);
-        sb.append("</tr>");
-
-        sb.append("<tr><td colspan=\"4\"><a href=\"../\"><tt>[Parent]</tt></a></td></tr>");
-
+        DirectoryListing listing = getDirectoryListing(request).addMembers(resource);
+        if (isListingNotModified(request, response, resource, listing)) {
+            return;
+        }
+        int offset = listing.getOffset();
+        int limit = listing.getLimit();
+        String sort = listing.getSort();
         String baseDir = request.getRequestURI().endsWith("/") ? request.getRequestURI()
                 : request.getRequestURI() + "/";
+        String resourcePath = resource.getResourcePath().endsWith("/") ? resource.getResourcePath()
+                : resource.getResourcePath() + "/";
+        DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM);
 
+        response.setContentType("text/html; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.print("<html><head><title>");
+        writer.print(Text.encodeIllegalHTMLCharacters(getServletConfig().getServletName()));
+        writer.print("</title><link rel=\"SHORTCUT ICON\" href=\"data:image/png;base64,XXXXX\">");
+        writer.print("<style type=\"text/css\">");
+        writer.print(getCSS());
+        writer.print("</style></head><body>");
+        writer.print("<h2>Content of folder: ");
+        writer.print(Text.encodeIllegalHTMLCharacters(resourcePath));
+        writer.print("</h2>");
+
+        writer.print("<table width=\"100%\" cellspacing=\"0\" cellpadding=\"5\" align=\"center\">\r\n");
+
+        // Head table, names sort the listing
+        writer.print("<tr>\r\n");
+        printHeadColumn(writer, "Name", DirectoryListing.SORT_NAME, sort, limit);
+        printHeadColumn(writer, "Size", DirectoryListing.SORT_SIZE, sort, limit);
+        printHeadColumn(writer, "Type", DirectoryListing.SORT_TYPE, sort, limit);
+        printHeadColumn(writer, "Modified", DirectoryListing.SORT_MODIFIED, sort, limit);
+        writer.print("</tr>");
+
+        writer.print("<tr><td colspan=\"4\"><a href=\"../\"><tt>[Parent]</tt></a></td></tr>");
+
+        final String tdStart = "<td><tt>";
+        final String tdEnd = "</tt></td>";
         boolean isEven = false;
-        Iterator<DavResource> resources = resource.getMembers();
-
-        // Sort list
-        ArrayList<DavResource> list = new ArrayList<>();
-        resources.forEachRemaining(list::add);
-
-        Collections.sort(list, (d1, d2) -> {
-            return d1.getDisplayName().compareTo(d2.getDisplayName());
-        });
-
-        for (DavResource res : list) {
+        for (DirectoryListing.Entry entry : listing.getPage()) {
             isEven = !isEven;
-            long lastModified = res.getModificationTime();
-            boolean isDir = res.isCollection();
-            String name = !isDir ? res.getDisplayName() : res.getDisplayName() + "/";
+            boolean isDir = entry.isCollection();
+            String name = !isDir ? entry.getName() : entry.getName() + "/";
 
             // Striped table
-            sb.append("<tr " + (isEven ? "bgcolor=\"#eeeeee\"" : "") + "\">");
+            writer.print(isEven ? "<tr bgcolor=\"#eeeeee\">" : "<tr>");
 
             // Name column
-            sb.append("<td>").append("<a href=\"");
-            sb.append(baseDir + name);
-            sb.append("\"><tt>");
-            sb.append(name);
-            sb.append("</tt></a></td>");
-
-            final String tdStart = "<td><tt>";
-            final String tdEnd = "</tt></td>";
+            writer.print("<td><a href=\"");
+            writer.print(Text.encodeIllegalHTMLCharacters(baseDir + Text.escapePath(name)));
+            writer.print("\"><tt>");
+            writer.print(Text.encodeIllegalHTMLCharacters(name));
+            writer.print("</tt></a></td>");
 
             // Size column
-            if (isDir) {
-                sb.append(tdStart);
-                sb.append("Folder");
-                sb.append(tdEnd);
-            } else {
-                DavProperty<?> prop = res.getProperty(DavPropertyName.GETCONTENTLENGTH);
-                String value = prop != null ? (String) prop.getValue() : null;
-                long length = value != null ? Long.valueOf(value) : 0L;
-                sb.append(tdStart).append(renderSize(length)).append(tdEnd);
-            }
+            writer.print(tdStart);
+            writer.print(isDir ? "Folder" : renderSize(entry.getContentLength()));
+            writer.print(tdEnd);
 
             // MIME type column
-            if (isDir) {
-                sb.append(tdStart);
-                sb.append("-");
-                sb.append(tdEnd);
-            } else {
-                sb.append(tdStart);
-                DavProperty<?> prop = res.getProperty(DavPropertyName.GETCONTENTTYPE);
-                String mimeType = prop != null ? (String) prop.getValue() : "Unknown type";
-                sb.append(mimeType);
-                sb.append(tdEnd);
-            }
+            writer.print(tdStart);
+            writer.print(isDir ? "-"
+                    : entry.getContentType() != null ? Text.encodeIllegalHTMLCharacters(entry.getContentType())
+                            : "Unknown type");
+            writer.print(tdEnd);
 
             // Date column
-            sb.append(tdStart);
-            sb.append(shortDF.format(lastModified));
-            sb.append(tdEnd);
+            writer.print(tdStart);
+            writer.print(dateFormat.format(entry.getModificationTime()));
+            writer.print(tdEnd);
 
-            sb.append("</tr>");
+            writer.print("</tr>");
         }
 
-        sb.append("</table>");
-        sb.append("<h3 id=\"version\" value=\"" + VERSION + "\">Application version: " + VERSION + "</h3>");
-        sb.append("</body></html>");
+        writer.print("</table>");
 
-        response.setContentType("text/html; charset=UTF-8");
-        response.getWriter().print(sb.toString());
+        // Pages
+        long total = listing.getTotal();
+        if (offset > 0 || offset + limit < total) {
+            writer.print("<p>");
+            if (offset > 0) {
+                printPageLink(writer, "Previous", Math.max(0, offset - limit), limit, sort);
+                writer.print(" ");
+            }
+            writer.print("Items " + Math.min(offset + 1, total) + " - " + Math.min(offset + limit, total) + " of "
+                    + total);
+            if (offset + limit < total) {
+                writer.print(" ");
+                printPageLink(writer, "Next", offset + limit, limit, sort);
+            }
+            writer.print("</p>");
+        }
+
+        writer.print("<h3 id=\"version\" value=\"" + VERSION + "\">Application version: " + VERSION + "</h3>");
+        writer.print("</body></html>");
+    }
+
+    /**
+     * Return empty listing of the page requested by <code>offset</code>,
+     * <code>limit</code> and <code>sort</code> query parameters, the limit is
+     * at most the page size and the offset is at most the maximum offset.
+     */
+    protected DirectoryListing getDirectoryListing(WebdavRequest request) {
+        int offset = Math.min(getIntParameter(request, "offset", 0), listingMaxOffset);
+        int limit = Math.min(getIntParameter(request, "limit", listingPageSize), listingPageSize);
+        return new DirectoryListing(Math.max(offset, 0), limit > 0 ? limit : listingPageSize,
+                request.getParameter("sort"));
+    }
+
+    private static int getIntParameter(WebdavRequest request, String name, int defaultValue) {
+        String value = request.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void printHeadColumn(PrintWriter writer, String title, String key, String sort, int limit) {
+        writer.print("<td align=\"left\"><font size=\"+1\"><strong>");
+        printPageLink(writer, title, 0, limit, key.equals(sort) ? "-" + key : key);
+        writer.print("</strong></font></td>\r\n");
+    }
+
+    /**
+     * Set validators of the directory listing page and evaluate conditional
+     * headers against them. With <code>mtime</code> validation the entity tag
+     * is computed from the modification time of the collection before members
+     * are listed, with <code>digest</code> validation from the digest of names,
+     * sizes and modification times of the listed members.
+     *
+     * @param listing
+     *            listing with added members or <code>null</code> before
+     *            listing
+     * @return <code>true</code> if the 304 (Not Modified) response has been
+     *         sent
+     */
+    protected boolean isListingNotModified(WebdavRequest request, WebdavResponse response, DavResource resource,
+            DirectoryListing listing) {
+        String etag;
+        long modificationTime = UNDEFINED_TIME;
+        if (LISTING_ETAG_MTIME.equals(listingETag) && listing == null) {
+            modificationTime = resource.getModificationTime();
+            if (modificationTime <= UNDEFINED_TIME) {
+                return false;
+            }
+            etag = "W/\"m" + Long.toHexString(modificationTime) + "-" + getListingQueryHash(request) + "\"";
+        } else if (LISTING_ETAG_DIGEST.equals(listingETag) && listing != null) {
+            etag = "W/\"d" + Long.toHexString(listing.getDigest()) + "-" + getListingQueryHash(request) + "\"";
+        } else {
+            return false;
+        }
+        if (isNotModified(request, response, etag, modificationTime)) {
+            return true;
+        }
+        response.setHeader(HEADER_ETAG, etag);
+        if (modificationTime > UNDEFINED_TIME) {
+            response.setDateHeader(HEADER_LAST_MODIFIED, modificationTime);
+        }
+        // stored by clients, but revalidated on every use
+        response.setHeader(HEADER_CACHE_CONTROL, "no-cache");
+        return false;
+    }
+
+    private String getListingQueryHash(WebdavRequest request) {
+        String query = getListingFormat(request) + "\n" + request.getParameter("offset") + "\n"
+                + request.getParameter("limit") + "\n" + request.getParameter("sort") + "\n"
+                + request.getParameter("cursor") + "\n" + listingPageSize + "\n" + VERSION;
+        return Integer.toHexString(query.hashCode());
+    }
+
+    /**
+     * Return format of the directory listing, given by the <code>format</code>
+     * query parameter or by the <code>Accept</code> header.
+     *
+     * @return <code>html</code>, <code>json</code> or <code>ndjson</code>
+     */
+    protected String getListingFormat(WebdavRequest request) {
+        String format = request.getParameter("format");
+        if (FORMAT_JSON.equals(format) || FORMAT_NDJSON.equals(format) || FORMAT_HTML.equals(format)) {
+            return format;
+        }
+        String accept = request.getHeader("Accept");
+        if (accept != null && accept.contains(CONTENT_TYPE_NDJSON)) {
+            return FORMAT_NDJSON;
+        } else if (accept != null && accept.contains(CONTENT_TYPE_JSON)) {
+            return FORMAT_JSON;
+        }
+        return FORMAT_HTML;
+    }
+
+    /**
+     * Print the page of the directory listing as JSON object with array of
+     * entries, or as NDJSON with an entry per line. The page continues after
+     * the <code>cursor</code> query parameter, cursor of the next page is
+     * returned as <code>next</code> if there are more entries.
+     */
+    protected void printDirectoryJson(WebdavRequest request, WebdavResponse response, DavResource resource,
+            boolean ndjson) throws IOException, DavException {
+        DirectoryListing listing = getDirectoryListing(request);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                listing.setCursor(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new DavException(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            }
+        }
+        listing.addMembers(resource);
+        if (isListingNotModified(request, response, resource, listing)) {
+            return;
+        }
+        List<DirectoryListing.Entry> page = listing.getPage();
+        String next = listing.hasMore() && !page.isEmpty() ? listing.getCursor(page.get(page.size() - 1)) : null;
+
+        response.setContentType((ndjson ? CONTENT_TYPE_NDJSON : CONTENT_TYPE_JSON) + "; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        if (!ndjson) {
+            writer.print("{\"path\":");
+            printJsonString(writer, resource.getResourcePath());
+            writer.print(",\"entries\":[");
+        }
+        boolean first = true;
+        for (DirectoryListing.Entry entry : page) {
+            if (!ndjson && !first) {
+                writer.print(',');
+            }
+            first = false;
+            writer.print("{\"name\":");
+            printJsonString(writer, entry.getName());
+            writer.print(entry.isCollection() ? ",\"type\":\"directory\"" : ",\"type\":\"file\",\"size\":");
+            if (!entry.isCollection()) {
+                writer.print(entry.getContentLength());
+                if (entry.getContentType() != null) {
+                    writer.print(",\"contentType\":");
+                    printJsonString(writer, entry.getContentType());
+                }
+            }
+            writer.print(",\"modified\":\"");
+            writer.print(HttpDates.formatCreation(entry.getModificationTime()));
+            writer.print(ndjson ? "\"}\n" : "\"}");
+        }
+        if (ndjson) {
+            if (next != null) {
+                writer.print("{\"next\":");
+                printJsonString(writer, next);
+                writer.print("}\n");
+            }
+        } else {
+            writer.print("],\"next\":");
+            if (next != null) {
+                printJsonString(writer, next);
+            } else {
+                writer.print("null");
+            }
+            writer.print("}");
+        }
+    }
+
+    private static void printJsonString(PrintWriter writer, String value) {
+        writer.print('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.print('\\');
+                writer.print(c);
+            } else if (c < 0x20) {
+                writer.print(String.format("\\u%04x", (int) c));
+            } else {
+                writer.print(c);
+            }
+        }
+        writer.print('"');
+    }
+
+    private static void printPageLink(PrintWriter writer, String title, long offset, int limit, String sort) {
+        writer.print("<a href=\"?offset=" + offset + "&amp;limit=" + limit + "&amp;sort=" + sort + "\">");
+        writer.print(title);
+        writer.print("</a>");
     }
 
     protected String getCSS() {
@@ -1,19 +1,69 @@
 package com.github.alanger.webdav;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 
+import org.apache.commons.vfs2.FileType;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.apache.jackrabbit.webdav.DavResourceLocator;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+import org.apache.jackrabbit.webdav.util.HttpDateFormat;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
+import org.apache.jackrabbit.webdav.xml.Namespace;
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runners.MethodSorters;
+import org.springframework.mock.web.DelegatingServletInputStream;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockServletConfig;
 import org.springframework.mock.web.MockServletContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class VfsWebDavTest {
@@ -22,6 +72,9 @@ public class VfsWebDavTest {
     static MockServletContext context;
     static VfsWebDavServlet servlet;
 
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
     protected static int deleteFile(String path) throws Throwable {
         MockHttpServletRequest request = new MockHttpServletRequest();
         MockHttpServletResponse response = new MockHttpServletResponse();
@@ -468,4 +521,1650 @@ public class VfsWebDavTest {
         assertFalse(servlet.getAuditMethods().contains("HEAD"));
         assertFalse(servlet.getAuditMethods().contains("POST"));
     }
+
+    @Test
+    public void test29_getRangeTest() throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Range", "bytes=1-3");
+        servlet.service(request, response);
+        assertEquals(206, response.getStatus()); // 206 Partial Content
+        assertEquals("bytes 1-3/5", response.getHeader("Content-Range"));
+        assertEquals(3, response.getContentLength());
+        assertEquals("ext", response.getContentAsString());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Range", "bytes=-2");
+        servlet.service(request, response);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 3-4/5", response.getHeader("Content-Range"));
+        assertEquals("t1", response.getContentAsString());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Range", "bytes=10-");
+        servlet.service(request, response);
+        assertEquals(416, response.getStatus()); // 416 Range Not Satisfiable
+        assertEquals("bytes */5", response.getHeader("Content-Range"));
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Range", "bytes=1-3");
+        request.addHeader("If-Range", "\"not-matched\"");
+        servlet.service(request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("text1", response.getContentAsString());
+    }
+
+    @Test
+    public void test30_getMultipleRangesTest() throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Range", "bytes=4-4,0-1,1-2");
+        servlet.service(request, response);
+        assertEquals(206, response.getStatus()); // 206 Partial Content
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String boundary = response.getContentType().replaceAll("^.*boundary=", "");
+        String expected = "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-2/5\r\n\r\ntex"
+                + "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 4-4/5\r\n\r\n1"
+                + "\r\n--" + boundary + "--\r\n";
+        assertEquals(expected, response.getContentAsString());
+        assertEquals(expected.length(), response.getContentLength());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Range", "bytes=0-1,2-4");
+        servlet.service(request, response);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 0-4/5", response.getHeader("Content-Range"));
+        assertEquals("text1", response.getContentAsString());
+    }
+
+    @Test
+    public void test31_bufferPoolTest() throws Throwable {
+        MockServletConfig config = new MockServletConfig("buffers");
+        config.addInitParameter("rootpath", System.getProperty("rootpath"));
+        config.addInitParameter("buffer-size", "32768");
+        config.addInitParameter("buffer-max-size", "262144");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        BufferPool pool = servlet.getBufferPool();
+        assertEquals(32768, pool.getMinBufferSize());
+        assertEquals(262144, pool.getMaxBufferSize());
+
+        // sizes of one servlet do not affect others
+        assertEquals(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.forScheme("file").getMinBufferSize());
+        assertEquals(BufferPool.DEFAULT_BUFFER_SIZE, VfsWebDavTest.servlet.getBufferPool().getMinBufferSize());
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file2.txt");
+        servlet.service(request, response);
+        assertEquals("text2", response.getContentAsString());
+        assertEquals(0, pool.getInUseCount());
+        assertEquals(1, pool.getAcquireCount()); // local file is read into the pooled buffer
+
+        // file channel is spooled in chunks of the pooled buffer
+        byte[] content = new byte[10000];
+        new Random(3).nextBytes(content);
+        File file = temp.newFile("spool.bin");
+        Files.write(file.toPath(), content);
+        BufferPool small = new BufferPool(4096, 4096);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            assertEquals(9500, IOUtil.spool(channel, 500, 20000, out, small));
+        }
+        assertArrayEquals(Arrays.copyOfRange(content, 500, 10000), out.toByteArray());
+        assertEquals(1, small.getAllocateCount());
+        assertEquals(0, small.getInUseCount());
+
+        // idle buffers are bounded by total size and dropped when the size changes
+        BufferPool large = new BufferPool(1024 * 1024, 2 * 1024 * 1024);
+        List<byte[]> buffers = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            buffers.add(large.acquire());
+        }
+        buffers.forEach(large::release);
+        assertEquals(16, large.getIdleCount());
+        assertEquals(16L * 1024 * 1024, large.getIdleBytes());
+        large.recordReads(256, 256);
+        assertEquals(2 * 1024 * 1024, large.getBufferSize());
+        assertEquals(0, large.getIdleCount());
+        assertEquals(0, large.getIdleBytes());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.github.alanger.webdav:type=BufferPool,scheme=file,name=\"buffers\"");
+        assertTrue(server.isRegistered(name));
+        servlet.destroy();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test(expected = ServletException.class)
+    public void test32_bufferPoolExceptionTest() throws Throwable {
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", System.getProperty("rootpath"));
+        config.addInitParameter("buffer-size", "notValidSize");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+    }
+
+    @Test
+    public void test33_conditionalGetTest() throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("HEAD");
+        request.setRequestURI("/test1/file1.txt");
+        servlet.service(request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals(5, response.getContentLength());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        String etag = response.getHeader("ETag");
+        assertTrue(etag != null && etag.startsWith("\"5-"));
+        assertEquals("", response.getContentAsString());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("If-None-Match", "\"other\", W/" + etag);
+        servlet.service(request, response);
+        assertEquals(304, response.getStatus()); // 304 Not Modified
+        assertEquals(etag, response.getHeader("ETag"));
+        assertEquals("", response.getContentAsString());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("HEAD");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("If-None-Match", "*");
+        servlet.service(request, response);
+        assertEquals(304, response.getStatus());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("If-None-Match", "\"other\"");
+        request.addHeader("If-Modified-Since", System.currentTimeMillis() + 60000);
+        servlet.service(request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("text1", response.getContentAsString());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("If-Modified-Since", System.currentTimeMillis() + 60000);
+        servlet.service(request, response);
+        assertEquals(304, response.getStatus());
+    }
+
+    @Test
+    public void test34_readAheadTest() throws Throwable {
+        byte[] content = new byte[1024 * 1024 + 17];
+        new Random(1).nextBytes(content);
+        BufferPool pool = new BufferPool(4096, 8192);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(content),
+                    Long.MAX_VALUE, 2, pool, executor)) {
+                IOUtil.copy(in, out, Long.MAX_VALUE);
+            }
+            assertArrayEquals(content, out.toByteArray());
+
+            out.reset();
+            try (ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(content), 10000,
+                    2, pool, executor)) {
+                assertEquals(10000, IOUtil.copy(in, out, Long.MAX_VALUE));
+            }
+            assertEquals(0, pool.getInUseCount());
+
+            // wrapped stream is closed after the blocked read returns
+            CountDownLatch reading = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger order = new AtomicInteger();
+            InputStream slow = new InputStream() {
+                @Override
+                public int read() {
+                    return 0;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    reading.countDown();
+                    // a blocked socket read is not interrupted
+                    while (release.getCount() > 0) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            continue;
+                        }
+                    }
+                    order.compareAndSet(0, 1);
+                    return len;
+                }
+
+                @Override
+                public void close() {
+                    order.compareAndSet(1, 2);
+                }
+            };
+            ReadAheadInputStream in = new ReadAheadInputStream(slow, Long.MAX_VALUE, 2, pool, executor);
+            assertTrue(reading.await(10, TimeUnit.SECONDS));
+            Thread closing = new Thread(() -> {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            closing.start();
+            closing.join(100);
+            assertTrue(closing.isAlive());
+            assertEquals(0, order.get());
+            release.countDown();
+            closing.join(10000);
+            assertEquals(2, order.get());
+            assertEquals(0, pool.getInUseCount());
+
+            // busy background threads, content is read without read-ahead
+            File dir = temp.newFolder("read-ahead");
+            Files.write(new File(dir, "file.bin").toPath(), content);
+            MockServletConfig config = new MockServletConfig();
+            config.addInitParameter("rootpath", dir.getPath());
+            config.addInitParameter("read-ahead", "file:2");
+            config.addInitParameter("background-threads", "1");
+            VfsWebDavServlet servlet = new VfsWebDavServlet();
+            servlet.init(config);
+            ThreadPoolExecutor background = (ThreadPoolExecutor) servlet.getExecutorService();
+            assertEquals(1, background.getMaximumPoolSize());
+            CountDownLatch busy = new CountDownLatch(1);
+            background.execute(() -> {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            servlet.service(new MockHttpServletRequest("GET", "/file.bin"), response);
+            busy.countDown();
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(content, response.getContentAsByteArray());
+            servlet.destroy();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = ServletException.class)
+    public void test35_readAheadExceptionTest() throws Throwable {
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", System.getProperty("rootpath"));
+        config.addInitParameter("read-ahead", "sftp:2,file:notValidDepth");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+    }
+
+    @Test
+    public void test36_contentCacheTest() throws Throwable {
+        File dir = temp.newFolder("content-cache");
+        ContentCache cache = new ContentCache(dir, 10);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ContentCache.CachingOutputStream cos = cache.begin("/dir/file1.txt", "\"1\"", out)) {
+            cos.write("text1".getBytes());
+            cos.commit(5);
+        }
+        assertEquals("text1", out.toString());
+        assertEquals(5, cache.getSize());
+        try (FileChannel channel = cache.open("/dir/file1.txt", "\"1\"")) {
+            assertTrue(channel != null);
+            assertEquals("text1", readChannel(channel));
+        }
+
+        // incomplete content is not cached
+        try (ContentCache.CachingOutputStream cos = cache.begin("/dir/file2.txt", "\"2\"", out)) {
+            cos.write("te".getBytes());
+            cos.commit(5);
+        }
+        assertEquals(null, cache.open("/dir/file2.txt", "\"2\""));
+
+        // persistent index
+        cache = new ContentCache(dir, 10);
+        assertEquals(1, cache.getCount());
+        assertEquals(null, cache.open("/dir/file1.txt", "\"changed\""));
+        assertEquals(0, cache.getCount());
+
+        // eviction of least recently used entries
+        for (int i = 1; i <= 3; i++) {
+            try (ContentCache.CachingOutputStream cos = cache.begin("/dir/file" + i + ".txt", "\"1\"", out)) {
+                cos.write("text1".getBytes());
+                cos.commit(5);
+            }
+        }
+        assertEquals(2, cache.getCount());
+        assertEquals(null, cache.open("/dir/file1.txt", "\"1\""));
+        assertFalse(cache.isCacheable(6));
+
+        // open content stays readable after invalidation
+        try (FileChannel channel = cache.open("/dir/file3.txt", "\"1\"")) {
+            cache.invalidate("/dir");
+            assertEquals(0, cache.getCount());
+            assertEquals(0, cache.getSize());
+            assertEquals("text1", readChannel(channel));
+        }
+        assertEquals(0, dir.list().length);
+
+        // cache of remote file system filled by GET and invalidated by PUT
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", "ram:///");
+        config.addInitParameter("cache-strategy", "onresolve");
+        config.addInitParameter("content-cache-dir", dir.getPath());
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        cache = servlet.getContentCache();
+        assertTrue(cache != null);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PUT");
+        request.setRequestURI("/cached_file.txt");
+        request.setContent("cached".getBytes());
+        servlet.service(request, response);
+        assertEquals(201, response.getStatus());
+
+        for (int i = 0; i < 2; i++) {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setMethod("GET");
+            request.setRequestURI("/cached_file.txt");
+            servlet.service(request, response);
+            assertEquals(200, response.getStatus());
+            assertEquals("cached", response.getContentAsString());
+        }
+        assertEquals(1, cache.getCount());
+        assertEquals(1, cache.getHitCount());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("PUT");
+        request.setRequestURI("/cached_file.txt");
+        request.setContent("changed".getBytes());
+        servlet.service(request, response);
+        assertEquals(204, response.getStatus());
+        assertEquals(0, cache.getCount());
+        request = new MockHttpServletRequest("GET", "/cached_file.txt");
+        response = new MockHttpServletResponse();
+        servlet.service(request, response);
+        assertEquals("changed", response.getContentAsString());
+        servlet.destroy();
+    }
+
+    @Test
+    public void test37_blockCacheTest() throws Throwable {
+        byte[] content = new byte[10 * 1024 + 100];
+        new Random(2).nextBytes(content);
+        File file = temp.newFile("block-cache.cache");
+        BlockCache cache = new BlockCache(file, 1024, 8 * 1024);
+        BufferPool pool = new BufferPool(512, 512);
+        BlockCache.ContentLoader loader = position -> {
+            ByteArrayInputStream in = new ByteArrayInputStream(content);
+            in.skip(position);
+            return in;
+        };
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(2000, cache.spool("/big.bin", "\"1\"", content.length, 1500, 2000, out, loader, pool));
+            assertArrayEquals(Arrays.copyOfRange(content, 1500, 3500), out.toByteArray());
+            assertEquals(1, cache.getReadCount()); // blocks 1-3 in one read
+            assertEquals(3, cache.getCount());
+
+            // block 2 is cached, blocks 0 and 4-5 are read
+            out.reset();
+            assertEquals(6000, cache.spool("/big.bin", "\"1\"", content.length, 0, 6000, out, loader, pool));
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 6000), out.toByteArray());
+            assertEquals(3, cache.getReadCount());
+            assertEquals(3, cache.getHitCount());
+
+            // last short block and eviction
+            out.reset();
+            assertEquals(content.length - 5000, cache.spool("/big.bin", "\"1\"", content.length, 5000, 10000, out, loader, pool));
+            assertArrayEquals(Arrays.copyOfRange(content, 5000, content.length), out.toByteArray());
+            assertEquals(8, cache.getCount());
+
+            // another entity tag is not cached
+            out.reset();
+            cache.spool("/big.bin", "\"2\"", content.length, 0, 10, out, loader, pool);
+            assertEquals(5, cache.getReadCount());
+
+            cache.invalidate("/");
+            assertEquals(0, cache.getCount());
+            assertEquals(0, pool.getInUseCount());
+            assertEquals(1, pool.getAllocateCount()); // missing blocks are read through the pooled buffer
+        } finally {
+            cache.close();
+        }
+        assertFalse(file.exists());
+
+        // range requests of remote file system
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", "ram:///");
+        config.addInitParameter("cache-strategy", "onresolve");
+        config.addInitParameter("block-cache-size", "65536");
+        config.addInitParameter("block-size", "4096");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        cache = servlet.getBlockCache();
+        assertTrue(cache != null);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PUT");
+        request.setRequestURI("/big.bin");
+        request.setContent(content);
+        servlet.service(request, response);
+        assertEquals(201, response.getStatus());
+
+        for (int i = 0; i < 2; i++) {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setMethod("GET");
+            request.setRequestURI("/big.bin");
+            request.addHeader("Range", "bytes=5000-5999");
+            servlet.service(request, response);
+            assertEquals(206, response.getStatus());
+            assertArrayEquals(Arrays.copyOfRange(content, 5000, 6000), response.getContentAsByteArray());
+        }
+        assertEquals(1, cache.getReadCount());
+        assertEquals(1, cache.getHitCount());
+        file = cache.getFile();
+        servlet.destroy();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void test38_memoryCacheTest() throws Throwable {
+        MemoryCache cache = new MemoryCache(4096, 2048);
+        BufferPool pool = new BufferPool(512, 512);
+        int[] loads = new int[1];
+        MemoryCache.ContentLoader loader = () -> {
+            loads[0]++;
+            return new ByteArrayInputStream("text1".getBytes());
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(cache.spool("/file1.txt", 5, 1000, out, loader, pool));
+        assertTrue(cache.spool("/file1.txt", 5, 1000, out, loader, pool));
+        assertEquals("text1text1", out.toString());
+        assertEquals(1, loads[0]);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4096, cache.getAllocated());
+
+        // modified file is loaded again
+        out.reset();
+        assertTrue(cache.spool("/file1.txt", 5, 2000, out, loader, pool));
+        assertEquals("text1", out.toString());
+        assertEquals(2, loads[0]);
+        assertEquals(1, cache.getCount());
+
+        // too large files and eviction
+        assertFalse(cache.spool("/large.bin", 4096, 1000, out, loader, pool));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cache.spool("/file" + i + ".txt", 5, 1000, out, loader, pool));
+        }
+        assertEquals(4, cache.getCount());
+        assertEquals(20, cache.getSize());
+
+        cache.invalidate("/");
+        assertEquals(0, cache.getCount());
+        assertEquals(0, pool.getInUseCount());
+
+        // small files of remote file system
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", "ram:///");
+        config.addInitParameter("cache-strategy", "onresolve");
+        config.addInitParameter("memory-cache-size", "1048576");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        cache = servlet.getMemoryCache();
+        assertEquals(MemoryCache.DEFAULT_MAX_ENTRY_SIZE, cache.getMaxEntrySize());
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PUT");
+        request.setRequestURI("/desktop.ini");
+        request.setContent("[.ShellClassInfo]".getBytes());
+        servlet.service(request, response);
+        assertEquals(201, response.getStatus());
+
+        for (int i = 0; i < 2; i++) {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setMethod("GET");
+            request.setRequestURI("/desktop.ini");
+            servlet.service(request, response);
+            assertEquals(200, response.getStatus());
+            assertEquals("[.ShellClassInfo]", response.getContentAsString());
+        }
+        assertEquals(1, cache.getHitCount());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("DELETE");
+        request.setRequestURI("/desktop.ini");
+        servlet.service(request, response);
+        assertEquals(204, response.getStatus());
+        assertEquals(0, cache.getCount());
+        servlet.destroy();
+    }
+
+    @Test
+    public void test39_etagIndexTest() throws Throwable {
+        File file = temp.newFile("etag-index.log");
+        String digest = ETagIndex.encode(MessageDigest.getInstance("SHA-256").digest("text1".getBytes()));
+
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", System.getProperty("rootpath"));
+        config.addInitParameter("etag-index", file.getPath());
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/test1/file1.txt");
+        servlet.service(request, response);
+        assertEquals("text1", response.getContentAsString());
+        assertTrue(response.getHeader("ETag").startsWith("\"5-"));
+        assertEquals(1, servlet.getETagIndex().getCount());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("HEAD");
+        request.setRequestURI("/test1/file1.txt");
+        servlet.service(request, response);
+        assertEquals("\"" + digest + "\"", response.getHeader("ETag"));
+        servlet.destroy();
+
+        // persistent index and background mode
+        config.addInitParameter("etag-mode", "background");
+        servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        ETagIndex index = servlet.getETagIndex();
+        assertEquals(1, index.getCount());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("HEAD");
+        request.setRequestURI("/test1/file2.txt");
+        servlet.service(request, response);
+        for (int i = 0; i < 100 && index.getCount() < 2; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, index.getCount());
+        index.invalidate("/test1");
+        assertEquals(0, index.getCount());
+
+        // log of replaced records is compacted while running
+        for (int i = 0; i < 100; i++) {
+            index.put("/test1/file1.txt", 5, i, digest);
+        }
+        assertEquals(1, index.getCount());
+        assertTrue(Files.readAllLines(file.toPath()).size() <= 18);
+        assertEquals(digest, index.get("/test1/file1.txt", 5, 99));
+        servlet.destroy();
+    }
+
+    @Test(expected = ServletException.class)
+    public void test40_etagModeExceptionTest() throws Throwable {
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", System.getProperty("rootpath"));
+        config.addInitParameter("etag-mode", "notValidMode");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+    }
+
+    @Test
+    public void test41_propfindMembersTest() throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PROPFIND");
+        request.setRequestURI("/test1");
+        request.addHeader("Depth", "1");
+        servlet.service(request, response);
+        assertEquals(207, response.getStatus());
+        String body = response.getContentAsString();
+        assertTrue(body.contains("/test1/file1.txt"));
+        assertTrue(body.contains("/test1/file2.txt"));
+        assertTrue(body.contains("/test1/file3.txt"));
+        assertTrue(body.contains("<D:getcontentlength>5</D:getcontentlength>"));
+
+        VfsDavResourceFactory factory = (VfsDavResourceFactory) servlet.getResourceFactory();
+        DavResourceLocator locator = servlet.getLocatorFactory().createResourceLocator("", "/test1");
+        DavResource resource = factory.createResource(locator, new VfsDavSession());
+        int count = 0;
+        for (DavResourceIterator it = resource.getMembers(); it.hasNext();) {
+            DavResource member = it.next();
+            assertTrue(member instanceof VfsDavResource);
+            assertTrue(member.exists());
+            assertFalse(member.isCollection());
+            assertEquals(5, ((VfsDavResource) member).getContentLength());
+            count++;
+        }
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void test42_parallelMembersTest() throws Throwable {
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", System.getProperty("rootpath"));
+        config.addInitParameter("member-parallelism", "sftp:8,file:3");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.setExecutorService(executor);
+        servlet.init(config);
+        try {
+            VfsDavResourceFactory factory = (VfsDavResourceFactory) servlet.getResourceFactory();
+            assertEquals(3, factory.getMemberParallelism());
+
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            request.setMethod("PROPFIND");
+            request.setRequestURI("/test1");
+            request.addHeader("Depth", "1");
+            servlet.service(request, response);
+            assertEquals(207, response.getStatus());
+            String body = response.getContentAsString();
+            assertTrue(body.contains("/test1/file1.txt"));
+            assertTrue(body.contains("/test1/file2.txt"));
+            assertTrue(body.contains("/test1/file3.txt"));
+
+            DavResourceLocator locator = servlet.getLocatorFactory().createResourceLocator("", "/test1");
+            DavResource resource = factory.createResource(locator, new VfsDavSession());
+            for (DavResourceIterator it = resource.getMembers(); it.hasNext();) {
+                VfsDavResource member = (VfsDavResource) it.next();
+                assertTrue(member.propsInitialized);
+                assertEquals(5, member.getContentLength());
+            }
+        } finally {
+            servlet.destroy();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test43_propfindRequestedPropertiesTest() throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PROPFIND");
+        request.setRequestURI("/test1");
+        request.addHeader("Depth", "1");
+        request.setContentType("application/xml");
+        request.setContent(("<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+                + "<D:propfind xmlns:D=\"DAV:\"><D:prop><D:getcontentlength/><D:displayname/></D:prop></D:propfind>")
+                .getBytes(StandardCharsets.UTF_8));
+        servlet.service(request, response);
+        assertEquals(207, response.getStatus());
+        String body = response.getContentAsString();
+        assertTrue(body.contains("/test1/file1.txt"));
+        assertTrue(body.contains("<D:getcontentlength>5</D:getcontentlength>"));
+        assertTrue(body.contains("<D:displayname>file1.txt</D:displayname>"));
+        assertFalse(body.contains("getcontenttype"));
+
+        VfsDavResourceFactory factory = (VfsDavResourceFactory) servlet.getResourceFactory();
+        DavResourceLocator locator = servlet.getLocatorFactory().createResourceLocator("", "/test1");
+        VfsDavResource resource = (VfsDavResource) factory.createResource(locator, new VfsDavSession());
+        DavPropertyNameSet names = new DavPropertyNameSet();
+        names.add(DavPropertyName.GETCONTENTLENGTH);
+        resource.setRequestedProperties(names);
+        for (DavResourceIterator it = resource.getMembers(); it.hasNext();) {
+            VfsDavResource member = (VfsDavResource) it.next();
+            assertFalse(member.propsInitialized);
+            assertEquals(names, member.getRequestedProperties());
+            assertNull(member.getResourceProperties().get(DavPropertyName.GETCONTENTTYPE));
+            assertNull(member.getResourceProperties().get(DavPropertyName.GETCONTENTTYPE));
+            assertEquals("5", member.getProperty(DavPropertyName.GETCONTENTLENGTH).getValue());
+            assertNull(member.getResourceProperties().get(DavPropertyName.GETCONTENTTYPE));
+            assertNotNull(member.getProperties().get(DavPropertyName.GETCONTENTTYPE));
+            assertTrue(member.propsInitialized);
+        }
+    }
+
+    @Test
+    public void test44_mimeTypesTest() throws Throwable {
+        MimeTypes mimeTypes = MimeTypes.getDefault();
+        assertTrue(mimeTypes.size() > 0);
+        assertEquals("application/pdf", mimeTypes.getContentType("doc.pdf"));
+        assertEquals("application/pdf", mimeTypes.getContentType("DOC.PDF"));
+        assertEquals("text/plain", mimeTypes.getContentType("archive.tar.txt"));
+        assertNull(mimeTypes.getContentType("file"));
+        assertNull(mimeTypes.getContentType("file."));
+        assertNull(mimeTypes.getContentType("dir.pdf/file"));
+        assertNull(mimeTypes.getContentType("file.unknownext"));
+
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", System.getProperty("rootpath"));
+        config.addInitParameter("mime-types", "txt:text/x-test, .MD:text/markdown");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        try {
+            assertEquals("text/markdown", servlet.getMimeTypes().getContentType("readme.md"));
+            assertEquals("application/pdf", servlet.getMimeTypes().getContentType("doc.pdf"));
+
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            request.setMethod("PROPFIND");
+            request.setRequestURI("/test1/file1.txt");
+            request.addHeader("Depth", "0");
+            servlet.service(request, response);
+            assertEquals(207, response.getStatus());
+            assertTrue(response.getContentAsString().contains("<D:getcontenttype>text/x-test</D:getcontenttype>"));
+        } finally {
+            servlet.destroy();
+        }
+    }
+
+    @Test
+    public void test45_streamingMultiStatusTest() throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PROPFIND");
+        request.setRequestURI("/test1");
+        request.addHeader("Depth", "1");
+        request.addHeader("Accept-Encoding", "deflate, gzip;q=0.8");
+        request.setContent(("<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+                + "<propfind xmlns=\"DAV:\" xmlns:Z=\"urn:test\"><prop><getetag/><Z:unknown/></prop></propfind>")
+                .getBytes(StandardCharsets.UTF_8));
+        servlet.service(request, response);
+        assertEquals(207, response.getStatus());
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            IOUtil.copy(is, bos, Long.MAX_VALUE);
+        }
+        Document document = DomUtil.parseDocument(new ByteArrayInputStream(bos.toByteArray()));
+        Element multistatus = document.getDocumentElement();
+        assertEquals("multistatus", multistatus.getLocalName());
+        assertEquals("DAV:", multistatus.getNamespaceURI());
+        assertEquals(4, multistatus.getElementsByTagNameNS("DAV:", "response").getLength());
+        assertEquals(4, multistatus.getElementsByTagNameNS("DAV:", "getetag").getLength());
+        assertEquals(4, multistatus.getElementsByTagNameNS("urn:test", "unknown").getLength());
+        String body = new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(body.contains("HTTP/1.1 404 Not Found"));
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("PROPFIND");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Depth", "0");
+        request.setContent("<D:propfind xmlns:D=\"DAV:\"><D:propname/></D:propfind>".getBytes(StandardCharsets.UTF_8));
+        servlet.service(request, response);
+        assertEquals(207, response.getStatus());
+        body = response.getContentAsString();
+        assertTrue(body.contains("<D:getcontentlength/>") || body.contains("<D:getcontentlength></D:getcontentlength>"));
+        assertFalse(body.contains("<D:getcontentlength>5"));
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("PROPFIND");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Depth", "0");
+        request.setContent("<D:propfind xmlns:D=\"DAV:\"><D:prop>".getBytes(StandardCharsets.UTF_8));
+        servlet.service(request, response);
+        assertEquals(400, response.getStatus());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("PROPFIND");
+        request.setRequestURI("/test1/file1.txt");
+        request.addHeader("Depth", "0");
+        request.setContent("<D:prop xmlns:D=\"DAV:\"/>".getBytes(StandardCharsets.UTF_8));
+        servlet.service(request, response);
+        assertEquals(400, response.getStatus());
+    }
+
+    private static String readChannel(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // read all
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    private static String propfind(VfsWebDavServlet servlet, String path, String depth) throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PROPFIND");
+        request.setRequestURI(path);
+        request.addHeader("Depth", depth);
+        servlet.service(request, response);
+        return response.getStatus() + " " + response.getContentAsString();
+    }
+
+    private static int countResponses(String body) {
+        return body.split("<D:response>", -1).length - 1;
+    }
+
+    @Test
+    public void test46_propfindDepthInfinityTest() throws Throwable {
+        File dir = temp.newFolder("propfind-tree");
+        for (int i = 0; i < 3; i++) {
+            File sub = new File(dir, "dir" + i + "/sub");
+            assertTrue(sub.mkdirs());
+            Files.write(new File(sub, "file.txt").toPath(), "text".getBytes());
+            Files.write(new File(sub.getParentFile(), "file.txt").toPath(), "text".getBytes());
+        }
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        String body = propfind(servlet, "/", "infinity");
+        assertTrue(body.startsWith("207 "));
+        // root, 3 * (dir, dir/file.txt, dir/sub, dir/sub/file.txt)
+        assertEquals(13, countResponses(body));
+        assertTrue(body.contains("/dir2/sub/file.txt"));
+        assertEquals(4, countResponses(propfind(servlet, "/", "1")));
+        servlet.destroy();
+
+        config.addInitParameter("propfind-max-depth", "2");
+        config.addInitParameter("propfind-max-entries", "8");
+        servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        body = propfind(servlet, "/", "infinity");
+        assertTrue(body.startsWith("207 "));
+        assertFalse(body.contains("/sub/file.txt"));
+        // 8 responses and the truncated collection
+        assertEquals(9, countResponses(body));
+        assertTrue(body.contains("HTTP/1.1 507 Insufficient Storage"));
+        // limits apply to depth infinity only
+        assertEquals(4, countResponses(propfind(servlet, "/", "1")));
+        servlet.destroy();
+
+        config.addInitParameter("propfind-max-depth", "0");
+        servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        body = propfind(servlet, "/", "infinity");
+        assertTrue(body.startsWith("403 "));
+        assertTrue(body.contains("propfind-finite-depth"));
+        assertTrue(propfind(servlet, "/", "0").startsWith("207 "));
+        servlet.destroy();
+    }
+
+    @Test
+    public void test47_metadataCacheTest() throws Throwable {
+        File dir = temp.newFolder("metadata-cache");
+        Files.write(new File(dir, "file1.txt").toPath(), "text1".getBytes());
+        long modified = 1500000000000L;
+        assertTrue(new File(dir, "file1.txt").setLastModified(modified));
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        config.addInitParameter("metadata-cache-ttl", "file:60000");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        MetadataCache cache = servlet.getMetadataCache();
+        assertTrue(cache != null);
+        assertEquals(60000, cache.getTtl());
+
+        assertEquals(2, countResponses(propfind(servlet, "/", "1")));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getCount());
+
+        // changes made outside of the servlet are not visible while the listing is fresh
+        Files.write(new File(dir, "file1.txt").toPath(), "changed_text1".getBytes());
+        Files.write(new File(dir, "file2.txt").toPath(), "text2".getBytes());
+        String body = propfind(servlet, "/", "1");
+        assertEquals(2, countResponses(body));
+        assertTrue(body.contains("<D:getcontentlength>5<"));
+        assertTrue(body.contains("<D:getlastmodified>" + IOUtil.getLastModified(modified) + "<"));
+        assertTrue(body.contains("<D:getetag>\"5-" + modified + "\"<"));
+        assertEquals(1, cache.getHitCount());
+        assertTrue(propfind(servlet, "/file1.txt", "0").contains("<D:getcontentlength>5<"));
+        // contents are spooled with the current length
+        MockHttpServletRequest get = new MockHttpServletRequest("GET", "/file1.txt");
+        MockHttpServletResponse got = new MockHttpServletResponse();
+        servlet.service(get, got);
+        assertEquals(200, got.getStatus());
+        assertEquals(13, got.getContentLength());
+        assertEquals("changed_text1", got.getContentAsString());
+
+        // changes made through the servlet invalidate the listing
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PUT");
+        request.setRequestURI("/file3.txt");
+        request.setContent("text3".getBytes());
+        servlet.service(request, response);
+        assertEquals(201, response.getStatus());
+        assertEquals(0, cache.getCount());
+        body = propfind(servlet, "/", "1");
+        assertEquals(4, countResponses(body));
+        assertTrue(body.contains("<D:getcontentlength>13<"));
+        servlet.destroy();
+
+        // stale listing is served and refreshed in background
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            cache = new MetadataCache(1, 60000, 100, executor);
+            AtomicInteger loads = new AtomicInteger();
+            MetadataCache.Loader loader = () -> {
+                loads.incrementAndGet();
+                return Collections.singletonList(new MetadataCache.Entry("file", null, FileType.FILE, 1, 0));
+            };
+            assertEquals(1, cache.getListing("/dir", loader).size());
+            assertEquals("file", cache.getEntry("/dir/file").getName());
+            assertEquals(null, cache.getEntry("/dir/unknown"));
+            Thread.sleep(10);
+            assertEquals(1, cache.getListing("/dir", loader).size());
+            assertEquals(1, cache.getStaleCount());
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(2, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // stale listing is served if loading fails
+        cache = new MetadataCache(1, 0, 100, null);
+        cache.getListing("/dir", () -> Collections.singletonList(new MetadataCache.Entry("file", null, FileType.FILE, 1, 0)));
+        Thread.sleep(10);
+        assertEquals(1, cache.getListing("/dir", () -> {
+            throw new IOException("Connection refused");
+        }).size());
+        cache.invalidate("/dir/file");
+        assertEquals(0, cache.getCount());
+    }
+
+    private static int status(VfsWebDavServlet servlet, String method, String path) throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod(method);
+        request.setRequestURI(path);
+        if ("PUT".equals(method)) {
+            request.setContent("text".getBytes());
+        }
+        servlet.service(request, response);
+        return response.getStatus();
+    }
+
+    @Test
+    public void test48_negativeCacheTest() throws Throwable {
+        File dir = temp.newFolder("negative-cache");
+        Files.write(new File(dir, "desktop.ini").toPath(), "text".getBytes());
+        Files.write(new File(dir, "._file.txt").toPath(), "text".getBytes());
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        config.addInitParameter("negative-cache-ttl", "file:60000");
+        config.addInitParameter("probe-paths", "desktop.ini, Thumbs.db, ._*");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        NegativeCache cache = servlet.getNegativeCache();
+        assertNotNull(cache);
+        assertEquals(60000, cache.getTtl());
+
+        // probes are answered without lookup
+        assertEquals(404, status(servlet, "GET", "/desktop.ini"));
+        assertEquals(404, status(servlet, "GET", "/DESKTOP.INI"));
+        assertEquals(404, status(servlet, "PROPFIND", "/._file.txt"));
+        assertEquals(404, status(servlet, "HEAD", "/thumbs.db"));
+        assertEquals(0, cache.getCount());
+
+        // missing paths are cached
+        assertEquals(404, status(servlet, "GET", "/file.txt"));
+        assertEquals(1, cache.getCount());
+        Files.write(new File(dir, "file.txt").toPath(), "text".getBytes());
+        assertEquals(404, status(servlet, "GET", "/file.txt"));
+        assertEquals(1, cache.getHitCount());
+
+        // paths created through the servlet are invalidated
+        assertEquals(404, status(servlet, "PROPFIND", "/dir/file.txt"));
+        assertEquals(404, status(servlet, "PROPFIND", "/dir"));
+        assertEquals(3, cache.getCount());
+        assertEquals(201, status(servlet, "MKCOL", "/dir"));
+        assertEquals(1, cache.getCount());
+        assertEquals(201, status(servlet, "PUT", "/dir/file.txt"));
+        assertEquals(200, status(servlet, "GET", "/dir/file.txt"));
+        assertEquals(204, status(servlet, "PUT", "/file.txt"));
+        assertEquals(0, cache.getCount());
+        assertEquals(200, status(servlet, "GET", "/file.txt"));
+        servlet.destroy();
+
+        assertEquals(null, NegativeCache.compileNames(" , "));
+        assertTrue(NegativeCache.compileNames("folder.jpg,*.tmp,?.db").matcher("Folder.JPG").matches());
+        assertTrue(NegativeCache.compileNames("folder.jpg,*.tmp,?.db").matcher("a.db").matches());
+        assertFalse(NegativeCache.compileNames("folder.jpg,*.tmp,?.db").matcher("ab.db").matches());
+        assertFalse(NegativeCache.compileNames("folder.jpg,*.tmp,?.db").matcher("folderXjpg").matches());
+    }
+
+    @Test
+    public void test49_sharedPropertiesTest() throws Throwable {
+        VfsDavResourceFactory factory = (VfsDavResourceFactory) servlet.getResourceFactory();
+        DavResourceLocator locator = servlet.getLocatorFactory().createResourceLocator("", "/test1");
+        VfsDavResource resource = (VfsDavResource) factory.createResource(locator, new VfsDavSession());
+        assertTrue(resource.getProperty(DavPropertyName.RESOURCETYPE) == ResourceProperties.RESOURCETYPE_COLLECTION);
+        assertTrue(resource.getProperty(DavPropertyName.ISCOLLECTION) == ResourceProperties.ISCOLLECTION_TRUE);
+        VfsDavResource previous = null;
+        for (DavResourceIterator it = resource.getMembers(); it.hasNext();) {
+            VfsDavResource member = (VfsDavResource) it.next();
+            if (member.isCollection()) {
+                continue;
+            }
+            assertEquals(ResourceProperties.RESOURCETYPE_DEFAULT, member.getProperty(DavPropertyName.RESOURCETYPE));
+            assertEquals(ResourceProperties.ISCOLLECTION_FALSE, member.getProperty(DavPropertyName.ISCOLLECTION));
+            assertEquals(ResourceProperties.SUPPORTEDLOCK, member.getProperty(DavPropertyName.SUPPORTEDLOCK));
+            assertEquals(ResourceProperties.LOCKDISCOVERY_EMPTY, member.getProperty(DavPropertyName.LOCKDISCOVERY));
+            assertEquals(member.getPropertyNames().length, member.getProperties().getContentSize());
+            assertEquals("5", member.getProperties().get(DavPropertyName.GETCONTENTLENGTH).getValue());
+            if (previous != null) {
+                assertTrue(previous.getProperty(DavPropertyName.GETCONTENTTYPE) == member
+                        .getProperty(DavPropertyName.GETCONTENTTYPE));
+                assertTrue(previous.getProperty(DavPropertyName.SUPPORTEDLOCK) == member
+                        .getProperty(DavPropertyName.SUPPORTEDLOCK));
+            }
+            previous = member;
+        }
+        assertNotNull(previous);
+        try {
+            ResourceProperties.SUPPORTEDLOCK.addEntry(Type.WRITE, Scope.SHARED);
+            fail("Shared supported lock is modified");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(1, ResourceProperties.SUPPORTEDLOCK.getValue().size());
+        }
+
+        ResourceProperties properties = new ResourceProperties();
+        DavPropertyName custom = DavPropertyName.create("custom", Namespace.getNamespace("urn:test"));
+        properties.add(ResourceProperties.getContentType("text/plain"));
+        properties.add(new DefaultDavProperty<>(custom, "value"));
+        assertEquals(2, properties.getPropertyNames().length);
+        assertEquals("value", properties.get(custom).getValue());
+        assertTrue(properties.contains(DavPropertyName.GETCONTENTTYPE));
+        assertFalse(properties.contains(DavPropertyName.GETETAG));
+        assertEquals(2, properties.toPropertySet().getContentSize());
+    }
+
+    @Test
+    public void test50_httpDatesTest() throws Throwable {
+        Random random = new Random(50);
+        long[] times = { 0, -1, 784111777000L, 951782400000L, 253402300799000L, -5000000000000L,
+                System.currentTimeMillis() };
+        for (int i = 0; i < 1000 + times.length; i++) {
+            long time = i < times.length ? times[i] : (long) (random.nextDouble() * 4102444800000L);
+            assertEquals(HttpDateFormat.modificationDateFormat().format(new Date(time)),
+                    HttpDates.formatModification(time));
+            assertEquals(HttpDateFormat.creationDateFormat().format(new Date(time)), HttpDates.formatCreation(time));
+        }
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDates.formatModification(784111777000L));
+        assertEquals("1994-11-06T08:49:37Z", HttpDates.formatCreation(784111777999L));
+        // cached by epoch second
+        assertTrue(HttpDates.formatModification(784111777000L) == HttpDates.formatModification(784111777500L));
+        assertEquals("1970-01-01T00:00:00Z", IOUtil.getCreated(IOUtil.UNDEFINED_TIME));
+    }
+
+    private static String getListing(VfsWebDavServlet servlet, String query) throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/");
+        for (String pair : query.split("&")) {
+            if (!pair.isEmpty()) {
+                request.addParameter(pair.substring(0, pair.indexOf('=')), pair.substring(pair.indexOf('=') + 1));
+            }
+        }
+        servlet.service(request, response);
+        assertEquals(200, response.getStatus());
+        return response.getContentAsString();
+    }
+
+    @Test
+    public void test51_directoryListingTest() throws Throwable {
+        File dir = temp.newFolder("listing");
+        for (int i = 0; i < 25; i++) {
+            Files.write(new File(dir, String.format("file%02d.txt", i)).toPath(), new byte[i * 10]);
+        }
+        assertTrue(new File(dir, "dir<&>").mkdir());
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        config.addInitParameter("listing-page-size", "10");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        assertEquals(10, servlet.getListingPageSize());
+
+        String body = getListing(servlet, "");
+        // directory and 9 files
+        assertEquals(9, body.split("<tt>file", -1).length - 1);
+        assertTrue(body.contains("<tt>dir&lt;&amp;&gt;/</tt>"));
+        assertTrue(body.contains("href=\"/dir%3c%26%3e/\""));
+        assertTrue(body.contains("Items 1 - 10 of 26"));
+        assertTrue(body.contains("?offset=10&amp;limit=10&amp;sort=name\">Next"));
+        assertFalse(body.contains("Previous"));
+        assertTrue(body.indexOf("file00.txt") < body.indexOf("file08.txt"));
+        assertTrue(body.contains("<tt>file08.txt</tt>"));
+
+        body = getListing(servlet, "offset=20&limit=100");
+        assertEquals(6, body.split("<tt>file", -1).length - 1);
+        assertTrue(body.contains("<tt>file24.txt</tt>"));
+        assertTrue(body.contains("Items 21 - 26 of 26"));
+        assertTrue(body.contains("?offset=10&amp;limit=10&amp;sort=name\">Previous"));
+        assertFalse(body.contains("Next"));
+
+        body = getListing(servlet, "limit=3&sort=-size");
+        assertEquals(3, body.split("<tt>file", -1).length - 1);
+        assertTrue(body.indexOf("file24.txt") < body.indexOf("file23.txt"));
+        assertFalse(body.contains("file21.txt"));
+        servlet.destroy();
+
+        // bounded top-K is the same as sorting all entries
+        Random random = new Random(51);
+        List<DirectoryListing.Entry> all = new ArrayList<>();
+        DirectoryListing listing = new DirectoryListing(30, 20, "-modified");
+        for (int i = 0; i < 1000; i++) {
+            DirectoryListing.Entry entry = new DirectoryListing.Entry("name" + i, false, i, null,
+                    random.nextInt(100));
+            all.add(entry);
+            listing.add(entry);
+        }
+        all.sort(Comparator.comparingLong(DirectoryListing.Entry::getModificationTime)
+                .thenComparing(DirectoryListing.Entry::getName).reversed());
+        assertEquals(1000, listing.getTotal());
+        assertEquals(all.subList(30, 50), listing.getPage());
+        assertEquals("-modified", listing.getSort());
+        assertEquals("name", new DirectoryListing(0, 1, "unknown").getSort());
+        assertTrue(new DirectoryListing(10, 1, null).getPage().isEmpty());
+    }
+
+    @Test
+    public void test52_jsonListingTest() throws Throwable {
+        File dir = temp.newFolder("json-listing");
+        for (int i = 0; i < 25; i++) {
+            Files.write(new File(dir, String.format("file%02d.txt", i)).toPath(), new byte[i]);
+        }
+        assertTrue(new File(dir, "dir \"1\"").mkdir());
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        config.addInitParameter("listing-page-size", "10");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/");
+        request.addParameter("format", "json");
+        request.addParameter("limit", "3");
+        servlet.service(request, response);
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getContentType().startsWith("application/json"));
+        String body = response.getContentAsString();
+        assertTrue(body.startsWith("{\"path\":\"/\",\"entries\":[{\"name\":\"dir \\\"1\\\"\",\"type\":\"directory\","));
+        assertTrue(body.contains("{\"name\":\"file00.txt\",\"type\":\"file\",\"size\":0,"
+                + "\"contentType\":\"text/plain\",\"modified\":\""));
+        assertTrue(body.contains("{\"name\":\"file01.txt\",\"type\":\"file\",\"size\":1,"));
+        assertFalse(body.contains("file02.txt"));
+        assertTrue(body.matches(".*\\],\"next\":\"[A-Za-z0-9_-]+\"\\}"));
+
+        // page through all entries by cursors
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setMethod("GET");
+            request.setRequestURI("/");
+            request.addHeader("Accept", "application/x-ndjson");
+            request.addParameter("sort", "-size");
+            if (cursor != null) {
+                request.addParameter("cursor", cursor);
+            }
+            servlet.service(request, response);
+            assertEquals(200, response.getStatus());
+            assertTrue(response.getContentType().startsWith("application/x-ndjson"));
+            assertEquals("Accept", response.getHeader("Vary"));
+            cursor = null;
+            for (String line : response.getContentAsString().split("\n")) {
+                if (line.startsWith("{\"next\":\"")) {
+                    cursor = line.substring(9, line.length() - 2);
+                } else {
+                    names.add(line.substring(9, line.indexOf("\",\"type\"")));
+                }
+            }
+            pages++;
+        } while (cursor != null);
+        assertEquals(3, pages);
+        assertEquals(26, names.size());
+        assertEquals("file24.txt", names.get(0));
+        assertEquals("file00.txt", names.get(24));
+        assertEquals("dir \\\"1\\\"", names.get(25));
+
+        // invalid cursor or cursor of another sort order
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/");
+        request.addParameter("format", "json");
+        request.addParameter("cursor", new DirectoryListing(0, 1, "-size")
+                .getCursor(new DirectoryListing.Entry("file10.txt", false, 10, null, 0)));
+        servlet.service(request, response);
+        assertEquals(400, response.getStatus());
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/");
+        request.addParameter("format", "json");
+        request.addParameter("cursor", "%%%");
+        servlet.service(request, response);
+        assertEquals(400, response.getStatus());
+
+        // html is the default format
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/");
+        request.addHeader("Accept", "text/html,application/xhtml+xml,*/*;q=0.8");
+        servlet.service(request, response);
+        assertTrue(response.getContentType().startsWith("text/html"));
+        servlet.destroy();
+    }
+
+    private static MockHttpServletResponse getListing(VfsWebDavServlet servlet, String query, String ifNoneMatch)
+            throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setRequestURI("/");
+        for (String pair : query.split("&")) {
+            if (!pair.isEmpty()) {
+                request.addParameter(pair.substring(0, pair.indexOf('=')), pair.substring(pair.indexOf('=') + 1));
+            }
+        }
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        servlet.service(request, response);
+        return response;
+    }
+
+    @Test
+    public void test53_listingETagTest() throws Throwable {
+        File dir = temp.newFolder("listing-etag");
+        Files.write(new File(dir, "file1.txt").toPath(), "text1".getBytes());
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        assertEquals("digest", servlet.getListingETag());
+        servlet.destroy();
+
+        config.addInitParameter("listing-etag", "mtime");
+        servlet = new VfsWebDavServlet();
+        servlet.init(config);
+
+        MockHttpServletResponse response = getListing(servlet, "", null);
+        assertEquals(200, response.getStatus());
+        String etag = response.getHeader("ETag");
+        assertTrue(etag.startsWith("W/\"m"));
+        assertNotNull(response.getHeader("Last-Modified"));
+        assertEquals("no-cache", response.getHeader("Cache-Control"));
+        response = getListing(servlet, "", etag);
+        assertEquals(304, response.getStatus());
+        assertEquals("", response.getContentAsString());
+        assertEquals(etag, response.getHeader("ETag"));
+        assertEquals("Accept", response.getHeader("Vary"));
+
+        // other page or format
+        response = getListing(servlet, "sort=-size", etag);
+        assertEquals(200, response.getStatus());
+        assertFalse(etag.equals(response.getHeader("ETag")));
+        response = getListing(servlet, "format=json", etag);
+        assertEquals(200, response.getStatus());
+        assertFalse(etag.equals(response.getHeader("ETag")));
+
+        // modified folder
+        Files.write(new File(dir, "file2.txt").toPath(), "text2".getBytes());
+        dir.setLastModified(dir.lastModified() + 10000);
+        response = getListing(servlet, "", etag);
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getContentAsString().contains("file2.txt"));
+        servlet.destroy();
+
+        config.addInitParameter("listing-etag", "digest");
+        servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        response = getListing(servlet, "format=ndjson", null);
+        assertEquals(200, response.getStatus());
+        etag = response.getHeader("ETag");
+        assertTrue(etag.startsWith("W/\"d"));
+        assertEquals(304, getListing(servlet, "format=ndjson", etag).getStatus());
+        Files.write(new File(dir, "file1.txt").toPath(), "changed_text1".getBytes());
+        response = getListing(servlet, "format=ndjson", etag);
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getContentAsString().contains("\"size\":13"));
+        servlet.destroy();
+
+        config.addInitParameter("listing-etag", "none");
+        servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        response = getListing(servlet, "", null);
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("ETag"));
+        servlet.destroy();
+    }
+
+    private static int put(VfsWebDavServlet servlet, String path, InputStream content, String overwrite)
+            throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+            @Override
+            public ServletInputStream getInputStream() {
+                return new DelegatingServletInputStream(content);
+            }
+        };
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PUT");
+        request.setRequestURI(path);
+        if (overwrite != null) {
+            request.addHeader("Overwrite", overwrite);
+        }
+        servlet.service(request, response);
+        return response.getStatus();
+    }
+
+    @Test
+    public void test54_atomicPutTest() throws Throwable {
+        File dir = temp.newFolder("atomic-put");
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        assertTrue(servlet.isAtomicPut());
+        File file = new File(dir, "file.txt");
+
+        assertEquals(201, put(servlet, "/file.txt", new ByteArrayInputStream("text1".getBytes()), null));
+        assertEquals("text1", new String(Files.readAllBytes(file.toPath())));
+        assertEquals(204, put(servlet, "/file.txt", new ByteArrayInputStream("text22".getBytes()), "T"));
+        assertEquals("text22", new String(Files.readAllBytes(file.toPath())));
+        assertEquals(412, put(servlet, "/file.txt", new ByteArrayInputStream("text3".getBytes()), "F"));
+        assertEquals("text22", new String(Files.readAllBytes(file.toPath())));
+
+        // aborted upload keeps the old content and leaves no temporary file
+        InputStream aborted = new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ < 100000) {
+                    return 'x';
+                }
+                throw new IOException("Connection reset");
+            }
+        };
+        assertEquals(500, put(servlet, "/file.txt", aborted, null));
+        assertEquals("text22", new String(Files.readAllBytes(file.toPath())));
+        assertEquals(500, put(servlet, "/new.txt", aborted, null));
+        assertFalse(new File(dir, "new.txt").exists());
+        assertArrayEquals(new String[] { "file.txt" }, dir.list());
+
+        // temporary files of crashed uploads are not listed
+        Files.write(new File(dir, ".file.txt.1f2e.upload").toPath(), "partial".getBytes());
+        assertEquals(2, countResponses(propfind(servlet, "/", "1")));
+        assertFalse(getListing(servlet, "").contains(".upload"));
+        servlet.destroy();
+
+        config.addInitParameter("atomic-put", "false");
+        servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        assertFalse(servlet.isAtomicPut());
+        assertEquals(204, put(servlet, "/file.txt", new ByteArrayInputStream("text4".getBytes()), null));
+        assertEquals("text4", new String(Files.readAllBytes(file.toPath())));
+        servlet.destroy();
+    }
+
+    private static MockHttpServletResponse putRange(VfsWebDavServlet servlet, String path, InputStream content,
+            String contentRange) throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+            @Override
+            public ServletInputStream getInputStream() {
+                return new DelegatingServletInputStream(content);
+            }
+        };
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("PUT");
+        request.setRequestURI(path);
+        request.addHeader("Content-Range", contentRange);
+        servlet.service(request, response);
+        return response;
+    }
+
+    private static String uploadOffset(VfsWebDavServlet servlet, String path) throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setMethod("HEAD");
+        request.setRequestURI(path);
+        request.setParameter("upload", "");
+        servlet.service(request, response);
+        assertEquals(200, response.getStatus());
+        return response.getHeader("Upload-Offset");
+    }
+
+    @Test
+    public void test55_resumablePutTest() throws Throwable {
+        assertEquals(new ByteRange(0, 499), ByteRange.parseContentRange("bytes 0-499/1234"));
+        assertEquals(new ByteRange(10, 19), ByteRange.parseContentRange("bytes 10-19/*"));
+        assertEquals(1234, ByteRange.parseCompleteLength("bytes 0-499/1234"));
+        assertEquals(-1, ByteRange.parseCompleteLength("bytes 10-19/*"));
+        assertNull(ByteRange.parseContentRange("bytes 5-2/10"));
+        assertNull(ByteRange.parseContentRange("bytes 0-10/10"));
+        assertNull(ByteRange.parseContentRange("items 0-1/10"));
+        assertNull(ByteRange.parseContentRange("bytes */10"));
+
+        File dir = temp.newFolder("resumable-put");
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        File file = new File(dir, "big.bin");
+
+        assertEquals("0", uploadOffset(servlet, "/big.bin"));
+        MockHttpServletResponse response = putRange(servlet, "/big.bin",
+                new ByteArrayInputStream("0123".getBytes()), "bytes 0-3/10");
+        assertEquals(202, response.getStatus());
+        assertEquals("4", response.getHeader("Upload-Offset"));
+        assertFalse(file.exists());
+        assertTrue(new File(dir, ".big.bin.upload").exists());
+
+        // gap after the uploaded bytes
+        response = putRange(servlet, "/big.bin", new ByteArrayInputStream("6789".getBytes()), "bytes 6-9/10");
+        assertEquals(416, response.getStatus());
+        assertEquals("4", response.getHeader("Upload-Offset"));
+        assertEquals(400,
+                putRange(servlet, "/big.bin", new ByteArrayInputStream("45".getBytes()), "bytes 5-4/10").getStatus());
+
+        // interrupted part keeps received bytes
+        InputStream interrupted = new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count < 2) {
+                    return '4' + count++;
+                }
+                throw new IOException("Connection reset");
+            }
+        };
+        assertEquals(500, putRange(servlet, "/big.bin", interrupted, "bytes 4-9/10").getStatus());
+        assertEquals("6", uploadOffset(servlet, "/big.bin"));
+
+        response = putRange(servlet, "/big.bin", new ByteArrayInputStream("6789".getBytes()), "bytes 6-9/10");
+        assertEquals(201, response.getStatus());
+        assertEquals("0123456789", new String(Files.readAllBytes(file.toPath())));
+        assertArrayEquals(new String[] { "big.bin" }, dir.list());
+        servlet.destroy();
+
+        // partial update in place
+        config.addInitParameter("atomic-put", "false");
+        servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        assertEquals("10", uploadOffset(servlet, "/big.bin"));
+        response = putRange(servlet, "/big.bin", new ByteArrayInputStream("ab".getBytes()), "bytes 2-3/*");
+        assertEquals(202, response.getStatus());
+        assertEquals("01ab456789", new String(Files.readAllBytes(file.toPath())));
+        response = putRange(servlet, "/big.bin", new ByteArrayInputStream("cd".getBytes()), "bytes 6-7/8");
+        assertEquals(204, response.getStatus());
+        assertEquals("01ab45cd", new String(Files.readAllBytes(file.toPath())));
+        servlet.destroy();
+    }
+
+    /**
+     * Content which runs the request of another client in another thread
+     * before it is read.
+     */
+    private interface Request {
+        Object call() throws Throwable;
+    }
+
+    private static InputStream overlapped(String content, Request request) {
+        return new ByteArrayInputStream(content.getBytes()) {
+            private boolean done = false;
+
+            @Override
+            public synchronized int read() {
+                overlap();
+                return super.read();
+            }
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                overlap();
+                return super.read(b, off, len);
+            }
+
+            private void overlap() {
+                if (!done) {
+                    done = true;
+                    ExecutorService executor = Executors.newSingleThreadExecutor();
+                    try {
+                        executor.submit(() -> {
+                            try {
+                                return request.call();
+                            } catch (Throwable e) {
+                                throw new Exception(e);
+                            }
+                        }).get();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    } finally {
+                        executor.shutdown();
+                    }
+                }
+            }
+        };
+    }
+
+    @Test
+    public void test56_invalidateAfterChangeTest() throws Throwable {
+        File dir = temp.newFolder("invalidate-after");
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        config.addInitParameter("metadata-cache-ttl", "file:60000");
+        config.addInitParameter("atomic-put", "false");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+
+        // listing loaded while the file is written is not kept
+        assertEquals(201, put(servlet, "/file.txt", overlapped("text1", () -> propfind(servlet, "/", "1")), null));
+        String body = propfind(servlet, "/", "1");
+        assertEquals(2, countResponses(body));
+        assertTrue(body.contains("<D:getcontentlength>5<"));
+        servlet.destroy();
+    }
+
+    @Test
+    public void test57_negativeCacheOverlapTest() throws Throwable {
+        File dir = temp.newFolder("negative-overlap");
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        config.addInitParameter("negative-cache-ttl", "file:60000");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        NegativeCache cache = servlet.getNegativeCache();
+
+        // probe of the path while it is created is not kept
+        assertEquals(201, put(servlet, "/file.txt", overlapped("text1", () -> status(servlet, "GET", "/file.txt")),
+                null));
+        assertEquals(200, status(servlet, "GET", "/file.txt"));
+        assertEquals(0, cache.getHitCount());
+
+        assertEquals(404, status(servlet, "GET", "/dir/file.txt"));
+        assertEquals(201, status(servlet, "MKCOL", "/dir"));
+        assertEquals(201, put(servlet, "/dir/file.txt",
+                overlapped("text2", () -> propfind(servlet, "/dir/file.txt", "0")), null));
+        assertTrue(propfind(servlet, "/dir/file.txt", "0").startsWith("207 "));
+        servlet.destroy();
+    }
+
+    @Test
+    public void test58_resumeOverExistingTest() throws Throwable {
+        MockServletConfig config = new MockServletConfig();
+        config.addInitParameter("rootpath", "ram:///");
+        config.addInitParameter("cache-strategy", "onresolve");
+        VfsWebDavServlet servlet = new VfsWebDavServlet();
+        servlet.init(config);
+        assertEquals(VfsWebDavServlet.DEFAULT_UPLOADTTL, servlet.getUploadTtl());
+
+        assertEquals(201, put(servlet, "/resume.txt", new ByteArrayInputStream("old content".getBytes()), null));
+        assertEquals(202, putRange(servlet, "/resume.txt", new ByteArrayInputStream("new ".getBytes()),
+                "bytes 0-3/11").getStatus());
+        assertFalse(propfind(servlet, "/", "1").contains(".upload"));
+
+        // concurrent upload of the same path
+        int[] concurrent = new int[1];
+        MockHttpServletResponse response = putRange(servlet, "/resume.txt", overlapped("content", () -> {
+            concurrent[0] = putRange(servlet, "/resume.txt", new ByteArrayInputStream("content".getBytes()),
+                    "bytes 4-10/11").getStatus();
+            return null;
+        }), "bytes 4-10/11");
+        assertEquals(409, concurrent[0]);
+        assertEquals(204, response.getStatus());
+        assertEquals("11", response.getHeader("Upload-Offset"));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/resume.txt");
+        response = new MockHttpServletResponse();
+        servlet.service(request, response);
+        assertEquals("new content", response.getContentAsString());
+        assertEquals("0", uploadOffset(servlet, "/resume.txt"));
+        servlet.destroy();
+
+        // unfinished uploads expire
+        File dir = temp.newFolder("upload-ttl");
+        config = new MockServletConfig();
+        config.addInitParameter("rootpath", dir.getPath());
+        config.addInitParameter("upload-ttl", "5000");
+        VfsWebDavServlet expiring = new VfsWebDavServlet();
+        expiring.init(config);
+        assertEquals(202, putRange(expiring, "/other.txt", new ByteArrayInputStream("abc".getBytes()),
+                "bytes 0-2/10").getStatus());
+        File upload = new File(dir, ".other.txt.upload");
+        upload.setLastModified(System.currentTimeMillis() - 10000);
+        assertEquals("0", uploadOffset(expiring, "/other.txt"));
+        assertFalse(upload.exists());
+
+        Files.write(new File(dir, ".file.txt.1f2e.upload").toPath(), "abc".getBytes());
+        new File(dir, ".file.txt.1f2e.upload").setLastModified(System.currentTimeMillis() - 10000);
+        assertEquals(1, countResponses(propfind(expiring, "/", "1")));
+        assertArrayEquals(new String[0], dir.list());
+        expiring.destroy();
+    }
 }